@@ -0,0 +1,87 @@
+package com.expensedash.bench;
+
+import com.expensedash.server.protocol.CommandRegistry;
+import com.expensedash.server.protocol.FieldCursor;
+
+/**
+ * Microbenchmark for command parsing + dispatch.
+ *
+ * Compares the old startsWith()/split("\\|") chain against CommandRegistry +
+ * FieldCursor on a realistic command mix. Handlers only consume their fields,
+ * so the numbers are pure protocol overhead.
+ *
+ * Run: ./run-bench.sh DispatchBench [iterations]
+ */
+public class DispatchBench {
+    private static final String[] MIX = {
+            "ADD_EXPENSE|12|Alice Johnson|45.5|Groceries for the week",
+            "SEARCH_GROUP|trip",
+            "REQUEST_SNAPSHOT",
+            "JOIN_GROUP|7",
+            "ADD_EXPENSE|3|Bob Smith|12.25|Coffee",
+            "LOGIN|alice|5e884898da28047151d0e56f8dc6292773603d0d",
+            "SETTLE|12",
+            "ADD_GROUP|Weekend Trip|Travel",
+    };
+
+    static long sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+
+        CommandRegistry<Object> registry = new CommandRegistry<>()
+                .on("REQUEST_SNAPSHOT", (s, a) -> sink++)
+                .on("REGISTER", (s, a) -> sink += a.next().length() + a.rest().length())
+                .on("LOGIN", (s, a) -> sink += a.next().length() + a.rest().length())
+                .on("ADD_GROUP", (s, a) -> sink += a.next().length() + a.restOr("").length())
+                .on("SEARCH_GROUP", (s, a) -> sink += a.restOr("").length())
+                .onGroup("JOIN_GROUP", (s, gid, a) -> sink += gid)
+                .onGroup("ADD_EXPENSE", (s, gid, a) -> sink += gid + a.next().length() + (long) a.nextDouble() + a.rest().length())
+                .onGroup("IMPORT_BEGIN", (s, gid, a) -> sink += gid)
+                .onGroup("EXPORT", (s, gid, a) -> sink += gid + a.restOr("csv").length())
+                .onGroup("SETTLE", (s, gid, a) -> sink += gid);
+        FieldCursor cursor = new FieldCursor();
+
+        for (int round = 0; round < 3; round++) {
+            long legacy = time(iterations, () -> {
+                for (String line : MIX) legacy(line);
+            });
+            long table = time(iterations, () -> {
+                for (String line : MIX) {
+                    try {
+                        registry.dispatch(null, line, cursor);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            System.out.printf("round %d: legacy %.1f ns/cmd, registry %.1f ns/cmd%n", round,
+                    legacy / (double) iterations / MIX.length, table / (double) iterations / MIX.length);
+        }
+        System.out.println("(sink " + sink + ")");
+    }
+
+    /** The pre-registry ServerMain parsing path. */
+    private static void legacy(String line) {
+        if (line.equals("REQUEST_SNAPSHOT")) { sink++; return; }
+        if (line.startsWith("REGISTER|")) { String[] p = line.split("\\|", 3); sink += p[1].length() + p[2].length(); return; }
+        if (line.startsWith("LOGIN|")) { String[] p = line.split("\\|", 3); sink += p[1].length() + p[2].length(); return; }
+        if (line.startsWith("ADD_GROUP|")) { String[] p = line.split("\\|", 3); sink += p[1].length() + (p.length >= 3 ? p[2] : "").length(); return; }
+        if (line.startsWith("SEARCH_GROUP|")) { String[] p = line.split("\\|", 2); sink += (p.length >= 2 ? p[1] : "").length(); return; }
+        if (line.startsWith("JOIN_GROUP|")) { sink += Integer.parseInt(line.split("\\|")[1]); return; }
+        if (line.startsWith("ADD_EXPENSE|")) {
+            String[] p = line.split("\\|", 5);
+            sink += Integer.parseInt(p[1]) + p[2].length() + (long) Double.parseDouble(p[3]) + p[4].length();
+            return;
+        }
+        if (line.startsWith("IMPORT_BEGIN|")) { sink += Integer.parseInt(line.split("\\|")[1]); return; }
+        if (line.startsWith("EXPORT|")) { String[] p = line.split("\\|", 3); sink += Integer.parseInt(p[1]) + p[2].length(); return; }
+        if (line.startsWith("SETTLE|")) sink += Integer.parseInt(line.split("\\|")[1]);
+    }
+
+    private static long time(int iterations, Runnable body) {
+        long t0 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) body.run();
+        return System.nanoTime() - t0;
+    }
+}
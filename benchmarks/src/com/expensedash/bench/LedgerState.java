@@ -0,0 +1,84 @@
+package com.expensedash.bench;
+
+import com.expensedash.server.Database;
+import com.expensedash.server.model.Expense;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * A throw-away SQLite ledger for the JMH suites, seeded once per trial.
+ *
+ * {@link #groups} groups are created; {@link #USER} is a member of the first
+ * {@link #userGroups} of them, and only those get {@link #members} members and
+ * {@link #expenses} expenses each (split equally, via the bulk import path).
+ * Override any of them from the command line, e.g. {@code -p expenses=50000}.
+ */
+@State(Scope.Benchmark)
+public class LedgerState {
+    public static final String USER = "bench_user";
+
+    @Param("200")
+    public int groups;
+
+    @Param("4")
+    public int userGroups;
+
+    @Param("6")
+    public int members;
+
+    @Param({"100", "1000", "10000"})
+    public int expenses;
+
+    public Database db;
+    public List<Integer> userGroupIds = new ArrayList<>();
+    public List<Integer> memberIds = new ArrayList<>();
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        dir = Files.createTempDirectory("expensedash-bench");
+        db = new Database(dir.resolve("bench.sqlite").toString());
+        db.init();
+        Random rnd = new Random(42);
+        for (int g = 0; g < groups; g++) {
+            int gid = db.addGroup(String.format("Bench group %05d", g), g % 2 == 0 ? "Travel" : "Living", USER);
+            if (g >= userGroups) continue;
+            userGroupIds.add(gid);
+            memberIds.add(db.addMember(USER, gid));
+            for (int m = 1; m < members; m++) memberIds.add(db.addMember("member_" + m, gid));
+            db.importExpenses(gid, rows(gid, rnd), 5000);
+        }
+    }
+
+    private Iterator<Expense> rows(int gid, Random rnd) {
+        return new Iterator<>() {
+            int n;
+
+            public boolean hasNext() {
+                return n < expenses;
+            }
+
+            public Expense next() {
+                n++;
+                String payer = rnd.nextInt(members) == 0 ? USER : "member_" + (1 + rnd.nextInt(Math.max(1, members - 1)));
+                return new Expense(0, gid, payer, 1 + rnd.nextInt(20000) / 100.0, "Expense " + n);
+            }
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.delete(p);
+        }
+    }
+}
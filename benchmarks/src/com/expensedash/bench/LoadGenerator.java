@@ -0,0 +1,262 @@
+package com.expensedash.bench;
+
+import com.expensedash.client.net.NetClient;
+import com.expensedash.client.net.ServerEvent;
+import com.expensedash.server.metrics.Histogram;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless load generator: N simulated users on the real {@link NetClient}, no JavaFX.
+ *
+ * Every user registers, logs in, joins one of the load groups and then, until the
+ * run ends, adds expenses, searches and refreshes (versioned REQUEST_SNAPSHOT) at the
+ * configured per-user rates. Reported per operation: throughput and request-to-reply
+ * latency (until the server's DONE). Requests still unanswered when the run ends
+ * are reported as unfinished, not as errors; a growing count means the server is
+ * saturated. Expense descriptions carry the send time, so
+ * every client that receives the EXPENSE broadcast also records delivery latency;
+ * all users live in this one JVM, so the clocks agree.
+ *
+ * Run against a local ServerMain:
+ *   ./run-bench.sh LoadGenerator users=500 groups=25 duration=60 expenseRate=0.5
+ */
+public class LoadGenerator {
+    private static final String TAG = "load@";
+
+    private final String host;
+    private final int port;
+    private final int users, groups, duration, ramp;
+    private final double expenseRate, searchRate, refreshRate;
+
+    private final Map<String, Op> ops = new ConcurrentSkipListMap<>();
+    private final Histogram delivery = new Histogram(1e9);
+    private final LongAdder delivered = new LongAdder();
+    private volatile boolean stopped;
+    private final ScheduledExecutorService timer = Executors.newScheduledThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+                Thread t = new Thread(r, "load-timer");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /** Latency (nanoseconds) and error count for one request type. */
+    private static final class Op {
+        final Histogram latency = new Histogram(1e9);
+        final LongAdder errors = new LongAdder();
+        final LongAdder unfinished = new LongAdder(); // still in flight when the run ended
+    }
+
+    LoadGenerator(Map<String, String> opts) {
+        host = opts.getOrDefault("host", "127.0.0.1");
+        port = Integer.parseInt(opts.getOrDefault("port", "5055"));
+        users = Integer.parseInt(opts.getOrDefault("users", "100"));
+        groups = Integer.parseInt(opts.getOrDefault("groups", "10"));
+        duration = Integer.parseInt(opts.getOrDefault("duration", "30"));
+        ramp = Integer.parseInt(opts.getOrDefault("ramp", "5"));
+        expenseRate = Double.parseDouble(opts.getOrDefault("expenseRate", "0.2"));
+        searchRate = Double.parseDouble(opts.getOrDefault("searchRate", "0.05"));
+        refreshRate = Double.parseDouble(opts.getOrDefault("refreshRate", "0.05"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("expected key=value, got " + a);
+            opts.put(a.substring(0, eq), a.substring(eq + 1));
+        }
+        new LoadGenerator(opts).run();
+    }
+
+    void run() throws Exception {
+        System.out.printf("[Load] %d users, %d groups, %ds (+%ds ramp) against %s:%d%n",
+                users, groups, duration, ramp, host, port);
+        List<Integer> groupIds = createGroups();
+
+        List<User> all = new ArrayList<>();
+        List<CompletableFuture<Void>> ready = new ArrayList<>();
+        long rampNanos = TimeUnit.SECONDS.toNanos(ramp);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            long due = t0 + rampNanos * i / Math.max(1, users);
+            long wait = due - System.nanoTime();
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+            User u = new User("load_u" + i, groupIds.get(i % groupIds.size()));
+            all.add(u);
+            ready.add(u.start());
+        }
+        int failed = 0;
+        for (CompletableFuture<Void> f : ready) {
+            try {
+                f.get(60, TimeUnit.SECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                failed++;
+            }
+        }
+        System.out.printf("[Load] %d users logged in (%d failed) in %d ms%n",
+                users - failed, failed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+
+        for (User u : all) u.schedule();
+
+        long start = System.nanoTime();
+        long lastReplies = ops.values().stream().mapToLong(o -> o.latency.count()).sum(), lastDelivered = 0;
+        for (int s = 10; s <= duration; s += 10) {
+            Thread.sleep(10_000);
+            long replies = ops.values().stream().mapToLong(o -> o.latency.count()).sum();
+            long got = delivered.sum();
+            System.out.printf("[Load] t=%ds  %.0f replies/s  %.0f broadcasts delivered/s%n",
+                    s, (replies - lastReplies) / 10.0, (got - lastDelivered) / 10.0);
+            lastReplies = replies;
+            lastDelivered = got;
+        }
+        Thread.sleep(Math.max(0, TimeUnit.SECONDS.toMillis(duration) - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        timer.shutdownNow();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Thread.sleep(1000); // let in-flight replies land
+        stopped = true;
+        for (User u : all) u.net.close();
+        report(seconds);
+    }
+
+    /** Creates "Load group N" (or finds it from an earlier run) and returns the ids. */
+    private List<Integer> createGroups() throws Exception {
+        NetClient admin = new NetClient();
+        admin.connect(host, port, null);
+        login(admin, "load_admin");
+        List<Integer> ids = new ArrayList<>();
+        for (int g = 0; g < groups; g++) {
+            String name = "Load group " + g;
+            int id = -1;
+            for (ServerEvent e : admin.request("ADD_GROUP|" + name + "|Load").get()) {
+                if (e instanceof ServerEvent.Reply r && r.is("ADD_GROUP_OK")) id = r.detailInt();
+            }
+            if (id < 0) {
+                for (ServerEvent e : admin.request("SEARCH_GROUP|" + name).get()) {
+                    if (e instanceof ServerEvent.SearchResult sr && sr.name().equals(name)) id = sr.groupId();
+                }
+            }
+            if (id < 0) throw new IllegalStateException("could not create or find " + name);
+            ids.add(id);
+        }
+        admin.close();
+        return ids;
+    }
+
+    private static void login(NetClient net, String user) throws Exception {
+        net.request("REGISTER|" + user + "|load").get(); // REGISTER_DUP on later runs is fine
+        for (ServerEvent e : net.request("LOGIN|" + user + "|load|NOSNAPSHOT").get()) {
+            if (e instanceof ServerEvent.Error err) throw new IllegalStateException(user + ": " + err.code());
+        }
+    }
+
+    private final class User {
+        final String name;
+        final int groupId;
+        final NetClient net = new NetClient();
+        final Map<Integer, String> versions = new ConcurrentHashMap<>();
+        final Random rnd = new Random();
+        boolean inSnapshot; // reader thread only; snapshot EXPENSE lines are not broadcasts
+
+        User(String name, int groupId) {
+            this.name = name;
+            this.groupId = groupId;
+        }
+
+        CompletableFuture<Void> start() {
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    net.connect(host, port, this::onEvent);
+                    timed("LOGIN", () -> {
+                        login(net, name);
+                        return null;
+                    });
+                    net.request("JOIN_GROUP|" + groupId).get();
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+
+        void schedule() {
+            every(expenseRate, () -> {
+                String desc = TAG + System.nanoTime();
+                double amount = 1 + rnd.nextInt(10_000) / 100.0;
+                send("ADD_EXPENSE", net.request("ADD_EXPENSE|" + groupId + "|" + name + "|" + amount + "|" + desc,
+                        UUID.randomUUID().toString()));
+            });
+            every(searchRate, () -> send("SEARCH_GROUP", net.request("SEARCH_GROUP|group " + rnd.nextInt(Math.max(1, groups)))));
+            every(refreshRate, () -> {
+                StringBuilder cmd = new StringBuilder("REQUEST_SNAPSHOT");
+                versions.forEach((gid, v) -> cmd.append('|').append(gid).append(':').append(v));
+                send("REQUEST_SNAPSHOT", net.request(cmd.toString()));
+            });
+        }
+
+        /** Fixed-rate task with a random phase so users do not fire in lockstep. */
+        private void every(double perSecond, Runnable task) {
+            if (perSecond <= 0) return;
+            long period = (long) (1e9 / perSecond);
+            timer.scheduleAtFixedRate(task, (long) (rnd.nextDouble() * period), period, TimeUnit.NANOSECONDS);
+        }
+
+        private void send(String op, CompletableFuture<List<ServerEvent>> reply) {
+            long start = System.nanoTime();
+            Op o = op(op);
+            reply.whenComplete((events, err) -> {
+                if (err != null && stopped) o.unfinished.increment();
+                else if (err != null || events.stream().anyMatch(e -> e instanceof ServerEvent.Error)) o.errors.increment();
+                else o.latency.recordSince(start);
+            });
+        }
+
+        private void onEvent(ServerEvent e) {
+            if (e instanceof ServerEvent.SnapshotBegin) {
+                inSnapshot = true;
+            } else if (e instanceof ServerEvent.SnapshotEnd) {
+                inSnapshot = false;
+            } else if (e instanceof ServerEvent.ExpenseAdded x && !inSnapshot && x.description().startsWith(TAG)) {
+                delivery.recordSince(Long.parseLong(x.description(), TAG.length(), x.description().length(), 10));
+                delivered.increment();
+            } else if (e instanceof ServerEvent.GroupVersion v) {
+                versions.put(v.groupId(), v.version());
+            } else if (e instanceof ServerEvent.ExpenseAdded x) {
+                versions.remove(x.groupId());
+            }
+        }
+    }
+
+    private Op op(String name) {
+        return ops.computeIfAbsent(name, k -> new Op());
+    }
+
+    private interface Call {
+        Object call() throws Exception;
+    }
+
+    private void timed(String op, Call c) throws Exception {
+        long start = System.nanoTime();
+        try {
+            c.call();
+            op(op).latency.recordSince(start);
+        } catch (Exception e) {
+            op(op).errors.increment();
+            throw e;
+        }
+    }
+
+    private void report(double seconds) {
+        System.out.printf("%n%-18s %9s %8s %10s %8s %9s %9s %9s %9s %9s%n",
+                "op", "count", "errors", "unfinished", "per sec", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        ops.forEach((name, o) -> row(name, o.latency, o.errors.sum(), o.unfinished.sum(), seconds));
+        row("broadcast", delivery, 0, 0, seconds);
+    }
+
+    private static void row(String name, Histogram h, long errors, long unfinished, double seconds) {
+        System.out.printf("%-18s %9d %8d %10d %8.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", name, h.count(), errors, unfinished,
+                h.count() / seconds, h.quantile(0.5) / 1e6, h.quantile(0.9) / 1e6, h.quantile(0.99) / 1e6,
+                h.quantile(0.999) / 1e6, h.max() / 1e6);
+    }
+}
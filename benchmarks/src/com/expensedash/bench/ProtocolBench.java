@@ -0,0 +1,64 @@
+package com.expensedash.bench;
+
+import com.expensedash.server.protocol.CommandRegistry;
+import com.expensedash.server.protocol.FieldCursor;
+import com.expensedash.server.protocol.RequestHeader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-line work of handleClient before a handler touches the database: request
+ * header, opcode lookup and field parsing. Handlers only consume their fields, as in
+ * {@link DispatchBench}.
+ *
+ * Run: ./run-bench.sh jmh ProtocolBench
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtocolBench {
+    private static final String[] MIX = {
+            "ADD_EXPENSE|12|Alice Johnson|45.5|Groceries for the week",
+            "@17|SEARCH_GROUP|trip",
+            "REQUEST_SNAPSHOT|1:12.840.311.0|2:4.20.7.0",
+            "@18|JOIN_GROUP|7",
+            "@19:4f1c2a9e-k1|ADD_EXPENSE|3|Bob Smith|12.25|Coffee",
+            "LOGIN|alice|5e884898da28047151d0e56f8dc6292773603d0d|NOSNAPSHOT",
+            "SETTLE|12",
+            "ADD_GROUP|Weekend Trip|Travel",
+    };
+
+    private final FieldCursor cursor = new FieldCursor();
+    private final RequestHeader header = new RequestHeader();
+    private CommandRegistry<Blackhole> registry;
+
+    @Setup
+    public void registry() {
+        registry = new CommandRegistry<Blackhole>()
+                .on("REQUEST_SNAPSHOT", (bh, a) -> { while (a.hasNext()) bh.consume(a.next()); })
+                .on("LOGIN", (bh, a) -> { bh.consume(a.next()); bh.consume(a.next()); bh.consume(a.hasNext()); })
+                .on("ADD_GROUP", (bh, a) -> { bh.consume(a.next()); bh.consume(a.restOr("")); })
+                .on("SEARCH_GROUP", (bh, a) -> bh.consume(a.restOr("")))
+                .onGroup("JOIN_GROUP", (bh, gid, a) -> bh.consume(gid))
+                .onGroup("ADD_EXPENSE", (bh, gid, a) -> { bh.consume(a.next()); bh.consume(a.nextDouble()); bh.consume(a.rest()); })
+                .onGroup("SETTLE", (bh, gid, a) -> bh.consume(gid));
+    }
+
+    /** Average cost per line over the whole mix. */
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void parseAndDispatch(Blackhole bh) throws Exception {
+        for (String line : MIX) {
+            int opStart = header.parse(line);
+            bh.consume(header.tag);
+            bh.consume(header.key);
+            cursor.reset(line, opStart);
+            registry.lookup(cursor).handle(bh, cursor);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.expensedash.bench;
+
+import com.expensedash.client.net.NetClient;
+import com.expensedash.client.net.ServerEvent;
+import com.expensedash.server.TrafficCapture;
+import com.expensedash.server.metrics.Histogram;
+import com.expensedash.server.protocol.RequestHeader;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replays a -Dexpensedash.capture recording and measures the server's latency.
+ *
+ * Every captured connection becomes a {@link NetClient}. Its commands are sent in
+ * recorded order as tagged requests, so latency is measured from send to the
+ * server's DONE. BATCH and IMPORT uploads are sent again as one request. Original
+ * request ids are replaced; idempotency keys are kept. RESUME lines are sent as
+ * captured and fail, because the recorded tokens do not exist on the new server.
+ *
+ * With server=&lt;classpath&gt; a fresh ServerMain from that build is started in an
+ * empty temp directory, so it begins with the seed database like the captured server
+ * did. Otherwise the replay goes to host:port.
+ *
+ *   ./run-bench.sh ReplayCapture capture=traffic.cap out=old.tsv server=/path/to/old/classes:lib/*
+ *   ./run-bench.sh ReplayCapture capture=traffic.cap out=new.tsv server=... pace=fast
+ *   ./run-bench.sh ReplayCapture compare old.tsv new.tsv
+ *
+ * pace=original (default) keeps the recorded gaps, scaled by speed=&lt;factor&gt;;
+ * pace=fast sends every command as soon as the previous one has been queued.
+ */
+public class ReplayCapture {
+    private static final long TIMEOUT_SECONDS = 120;
+
+    /** One unit of replay work for a captured session. */
+    private record Action(long micros, int session, byte type, String cmd, String key, List<String> body) {}
+
+    private final Map<String, Histogram> latency = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("compare")) {
+            compare(Path.of(args[1]), Path.of(args[2]));
+            return;
+        }
+        Map<String, String> opts = new HashMap<>();
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("expected key=value, got " + a);
+            opts.put(a.substring(0, eq), a.substring(eq + 1));
+        }
+        if (!opts.containsKey("capture")) throw new IllegalArgumentException("capture=<file> is required");
+        new ReplayCapture().run(opts);
+    }
+
+    void run(Map<String, String> opts) throws Exception {
+        List<Action> actions = load(Path.of(opts.get("capture")));
+        String host = opts.getOrDefault("host", "127.0.0.1");
+        int port = Integer.parseInt(opts.getOrDefault("port", "5055"));
+        boolean fast = opts.getOrDefault("pace", "original").equals("fast");
+        double speed = Double.parseDouble(opts.getOrDefault("speed", "1"));
+
+        Process server = opts.containsKey("server") ? startServer(opts.get("server"), host, port) : null;
+        try {
+            long elapsed = replay(actions, host, port, fast, speed);
+            System.out.printf("[Replay] %d actions in %.1f s%n", actions.size(), elapsed / 1e9);
+        } finally {
+            if (server != null) server.destroy();
+        }
+        String results = render();
+        System.out.print(results);
+        if (opts.containsKey("out")) Files.writeString(Path.of(opts.get("out")), results);
+    }
+
+    /** Turns the capture into per-session actions, folding uploads into one request each. */
+    static List<Action> load(Path file) throws IOException {
+        List<Action> actions = new ArrayList<>();
+        Map<Integer, Action> uploads = new HashMap<>(); // session → open BATCH/IMPORT
+        RequestHeader header = new RequestHeader();
+        TrafficCapture.read(file, e -> {
+            if (e.type() != TrafficCapture.LINE) {
+                actions.add(new Action(e.micros(), e.session(), e.type(), null, null, null));
+                return;
+            }
+            Action upload = uploads.get(e.session());
+            if (upload != null) {
+                upload.body().add(e.line());
+                if (e.line().equals("BATCH_END") || e.line().equals("IMPORT_END")) uploads.remove(e.session());
+                return;
+            }
+            int opStart = header.parse(e.line());
+            if (opStart < 0) return;
+            String cmd = e.line().substring(opStart);
+            Action a = new Action(e.micros(), e.session(), TrafficCapture.LINE, cmd, header.key, new ArrayList<>());
+            if (cmd.startsWith("BATCH_BEGIN|") || cmd.startsWith("IMPORT_BEGIN|")) uploads.put(e.session(), a);
+            actions.add(a);
+        });
+        System.out.printf("[Replay] Loaded %d actions from %s%n", actions.size(), file);
+        return actions;
+    }
+
+    private long replay(List<Action> actions, String host, int port, boolean fast, double speed) throws Exception {
+        Map<Integer, NetClient> clients = new HashMap<>();
+        Map<Integer, List<CompletableFuture<?>>> inFlight = new HashMap<>();
+        List<CompletableFuture<?>> all = new ArrayList<>();
+        long start = System.nanoTime();
+        for (Action a : actions) {
+            if (!fast) {
+                long wait = start + (long) (a.micros() * 1000 / speed) - System.nanoTime();
+                if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            switch (a.type()) {
+                case TrafficCapture.OPEN -> {
+                    NetClient net = new NetClient();
+                    net.connect(host, port, null);
+                    clients.put(a.session(), net);
+                    inFlight.put(a.session(), new ArrayList<>());
+                }
+                case TrafficCapture.CLOSE -> {
+                    NetClient net = clients.remove(a.session());
+                    List<CompletableFuture<?>> pending = inFlight.remove(a.session());
+                    if (net != null) {
+                        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+                                .whenComplete((r, err) -> net.close());
+                    }
+                }
+                default -> {
+                    NetClient net = clients.get(a.session());
+                    if (net == null) continue; // capture started mid-session
+                    if (a.cmd().equals("PING") || a.cmd().equals("PONG")) continue; // NetClient sends its own
+                    CompletableFuture<?> f = send(net, a);
+                    inFlight.get(a.session()).add(f);
+                    all.add(f);
+                }
+            }
+        }
+        try {
+            CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[0])).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException ignored) {
+            // failures are counted per request
+        }
+        long elapsed = System.nanoTime() - start;
+        clients.values().forEach(NetClient::close);
+        return elapsed;
+    }
+
+    private CompletableFuture<?> send(NetClient net, Action a) {
+        int bar = a.cmd().indexOf('|');
+        String op = bar < 0 ? a.cmd() : a.cmd().substring(0, bar);
+        Histogram h = latency.computeIfAbsent(op, k -> new Histogram(1e9));
+        long start = System.nanoTime();
+        CompletableFuture<List<ServerEvent>> reply = a.body().isEmpty()
+                ? net.request(a.cmd(), a.key())
+                : net.requestBatch(a.cmd(), a.body());
+        return reply.whenComplete((events, err) -> {
+            if (err != null) errors.computeIfAbsent(op, k -> new LongAdder()).increment();
+            else h.recordSince(start);
+        });
+    }
+
+    private static Process startServer(String classpath, String host, int port) throws Exception {
+        Path dir = Files.createTempDirectory("expensedash-replay");
+        Process p = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Dexpensedash.metrics.port=0",
+                // a sped-up replay would otherwise measure THROTTLED replies, not commands
+                "-Dexpensedash.rate.interactive.perSecond=0", "-Dexpensedash.rate.bulk.perSecond=0",
+                "-cp", classpath, "com.expensedash.server.ServerMain")
+                .directory(dir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(dir.resolve("server.log").toFile())
+                .start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            if (!p.isAlive()) throw new IllegalStateException("server exited, see " + dir.resolve("server.log"));
+            try {
+                new Socket(host, port).close();
+                System.out.println("[Replay] Started server in " + dir);
+                return p;
+            } catch (IOException notYet) {
+                Thread.sleep(100);
+            }
+        }
+        p.destroy();
+        throw new IllegalStateException("server did not start listening on " + host + ":" + port);
+    }
+
+    /** Tab-separated result table, latencies in microseconds. */
+    private String render() {
+        StringBuilder sb = new StringBuilder("# op\tcount\terrors\tp50_us\tp90_us\tp99_us\tp999_us\tmax_us\n");
+        latency.forEach((op, h) -> sb.append(op).append('\t').append(h.count()).append('\t')
+                .append(errors.getOrDefault(op, new LongAdder()).sum()).append('\t')
+                .append(h.quantile(0.5) / 1000).append('\t').append(h.quantile(0.9) / 1000).append('\t')
+                .append(h.quantile(0.99) / 1000).append('\t').append(h.quantile(0.999) / 1000).append('\t')
+                .append(h.max() / 1000).append('\n'));
+        return sb.toString();
+    }
+
+    /** Prints the percentile change per command between two result tables. */
+    static void compare(Path before, Path after) throws IOException {
+        Map<String, long[]> a = parse(before), b = parse(after);
+        String[] cols = {"p50", "p90", "p99", "p99.9", "max"};
+        System.out.printf("%-18s %13s", "op", "count");
+        for (String c : cols) System.out.printf(" %29s", c + " us (change)");
+        System.out.println();
+        for (String op : new TreeSet<>(a.keySet())) {
+            long[] x = a.get(op), y = b.get(op);
+            if (y == null) {
+                System.out.printf("%-18s only in %s%n", op, before);
+                continue;
+            }
+            System.out.printf("%-18s %6d/%-6d", op, x[0], y[0]);
+            for (int i = 0; i < cols.length; i++) {
+                long from = x[i + 2], to = y[i + 2];
+                String change = from == 0 ? "n/a" : String.format("%+.0f%%", 100.0 * (to - from) / from);
+                System.out.printf(" %8d -> %-8d %7s", from, to, change);
+            }
+            System.out.println();
+        }
+        for (String op : b.keySet()) if (!a.containsKey(op)) System.out.printf("%-18s only in %s%n", op, after);
+    }
+
+    private static Map<String, long[]> parse(Path file) throws IOException {
+        Map<String, long[]> rows = new HashMap<>();
+        for (String line : Files.readAllLines(file)) {
+            if (line.startsWith("#") || line.isBlank()) continue;
+            String[] f = line.split("\t");
+            long[] v = new long[f.length - 1];
+            for (int i = 1; i < f.length; i++) v[i - 1] = Long.parseLong(f[i]);
+            rows.put(f[0], v);
+        }
+        return rows;
+    }
+}
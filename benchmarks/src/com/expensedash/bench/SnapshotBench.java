@@ -0,0 +1,43 @@
+package com.expensedash.bench;
+
+import com.expensedash.server.ServerMain;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot serialisation for {@link LedgerState#USER} into a sink that only hands
+ * each line to the Blackhole, so socket writes are not part of the number.
+ *
+ * Run: ./run-bench.sh jmh SnapshotBench
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotBench {
+    private Map<Integer, String> cached;
+
+    @Setup(Level.Trial)
+    public void versions(LedgerState s) throws Exception {
+        cached = new HashMap<>();
+        for (int gid : s.userGroupIds) cached.put(gid, s.db.groupVersion(gid));
+    }
+
+    /** First login: every group is sent in full. */
+    @Benchmark
+    public void fullSnapshot(LedgerState s, Blackhole bh) {
+        ServerMain.sendSnapshot(bh::consume, s.db, LedgerState.USER);
+    }
+
+    /** Reconnect with an up-to-date cache: only versions are compared. */
+    @Benchmark
+    public void unchangedSnapshot(LedgerState s, Blackhole bh) {
+        ServerMain.sendSnapshot(bh::consume, s.db, LedgerState.USER, cached);
+    }
+}
@@ -0,0 +1,50 @@
+package com.expensedash.bench;
+
+import com.expensedash.server.Database;
+import com.expensedash.server.model.Expense;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Database calls on the request path, against a seeded {@link LedgerState}.
+ *
+ * Run: ./run-bench.sh jmh StorageBench
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageBench {
+    private static final AtomicLong KEYS = new AtomicLong();
+
+    /** ADD_EXPENSE as it was first written: one insert, then one insert per member split. */
+    @Benchmark
+    public int addExpenseThenSplits(LedgerState s) throws Exception {
+        int gid = s.userGroupIds.get(0);
+        int id = s.db.addExpense(gid, LedgerState.USER, 42.0, "Bench expense");
+        double per = 42.0 / s.members;
+        for (int m = 0; m < s.members; m++) s.db.addSplit(id, s.memberIds.get(m), per);
+        return id;
+    }
+
+    /** ADD_EXPENSE as the server runs it now: expense, splits and key in one transaction. */
+    @Benchmark
+    public Database.AddedExpense addExpenseOnce(LedgerState s) throws Exception {
+        return s.db.addExpenseOnce(s.userGroupIds.get(0), LedgerState.USER, 42.0, "Bench expense",
+                "bench-" + KEYS.incrementAndGet());
+    }
+
+    @Benchmark
+    public List<Expense> getExpensesForGroup(LedgerState s) throws Exception {
+        return s.db.getExpensesForGroup(s.userGroupIds.get(s.userGroupIds.size() - 1));
+    }
+
+    @Benchmark
+    public Object searchGroups(LedgerState s) throws Exception {
+        return s.db.searchGroups("group 001");
+    }
+}
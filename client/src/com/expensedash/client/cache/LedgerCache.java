@@ -0,0 +1,190 @@
+package com.expensedash.client.cache;
+
+import com.expensedash.client.net.ServerEvent;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Last known ledger of one user on one server, kept on disk so the dashboard can
+ * paint before the server has answered.
+ *
+ * The file is an append-only log of ledger events (groups, members, expenses,
+ * splits, resets and per-group versions) in a compact binary form. Replaying it in
+ * order rebuilds the dashboard state. Live broadcasts are appended as they arrive,
+ * and after every snapshot the whole file is rewritten from the current state, so it
+ * never grows much beyond the ledger itself.
+ *
+ * All disk I/O runs on one background thread; {@link #append} and {@link #rewrite}
+ * only queue work and are safe to call from the FX thread.
+ *
+ * Location: ~/.expensedash/cache/&lt;user&gt;@&lt;host&gt;.cache, or
+ * -Dexpensedash.cacheDir=&lt;dir&gt;.
+ */
+public final class LedgerCache {
+    private static final int MAGIC = 0x45444331; // "EDC1"
+
+    private static final byte GROUP = 1, MEMBER = 2, EXPENSE = 3, SPLIT = 4, RESET = 5, VERSION = 6;
+
+    private final Path file;
+    private final ExecutorService io = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ledger-cache");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicInteger queued = new AtomicInteger();
+    private DataOutputStream log; // io thread only
+
+    private LedgerCache(Path file) {
+        this.file = file;
+    }
+
+    /** Cache for {@code user} on {@code host}; nothing is read or created yet. */
+    public static LedgerCache forUser(String host, String user) {
+        return new LedgerCache(fileFor(host, user, ".cache"));
+    }
+
+    /** Per-user, per-server file in the cache directory. */
+    static Path fileFor(String host, String user, String extension) {
+        String dir = System.getProperty("expensedash.cacheDir");
+        Path base = dir != null ? Path.of(dir) : Path.of(System.getProperty("user.home"), ".expensedash", "cache");
+        return base.resolve(safe(user) + "@" + safe(host) + extension);
+    }
+
+    private static String safe(String s) {
+        return s == null ? "_" : s.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * Reads every cached event. A missing or unreadable file yields an empty list;
+     * a torn tail (crash mid-append) is dropped and the file rewritten without it.
+     */
+    public List<ServerEvent> load() {
+        List<ServerEvent> events = new ArrayList<>();
+        if (!Files.isRegularFile(file)) return events;
+        long start = System.nanoTime();
+        boolean torn = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) throw new IOException("not a ledger cache");
+            while (true) {
+                int tag = in.read();
+                if (tag < 0) break;
+                events.add(read(tag, in));
+            }
+        } catch (EOFException e) {
+            torn = true;
+        } catch (IOException e) {
+            System.out.println("[Cache] Ignoring " + file + ": " + e.getMessage());
+            events.clear();
+            torn = true;
+        }
+        if (torn) rewrite(events);
+        System.out.println("[Cache] Loaded " + events.size() + " events in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return events;
+    }
+
+    /** Queues one ledger event for the log; other event types are ignored. */
+    public void append(ServerEvent e) {
+        if (!isLedger(e)) return;
+        queued.incrementAndGet();
+        io.execute(() -> {
+            boolean last = queued.decrementAndGet() == 0;
+            try {
+                if (log == null) openLog();
+                write(e, log);
+                if (last) log.flush(); // one flush per burst of broadcasts
+            } catch (IOException ex) {
+                System.out.println("[Cache] Append failed: " + ex.getMessage());
+            }
+        });
+    }
+
+    /** Replaces the whole file with {@code events} (written to a temp file, then renamed). */
+    public void rewrite(List<ServerEvent> events) {
+        io.execute(() -> {
+            try {
+                if (log != null) {
+                    log.close();
+                    log = null;
+                }
+                Files.createDirectories(file.getParent());
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                    out.writeInt(MAGIC);
+                    for (ServerEvent e : events) write(e, out);
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ex) {
+                System.out.println("[Cache] Rewrite failed: " + ex.getMessage());
+            }
+        });
+    }
+
+    private void openLog() throws IOException {
+        Files.createDirectories(file.getParent());
+        boolean fresh = !Files.isRegularFile(file) || Files.size(file) == 0;
+        log = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 1 << 16));
+        if (fresh) log.writeInt(MAGIC);
+    }
+
+    private static boolean isLedger(ServerEvent e) {
+        return e instanceof ServerEvent.GroupInfo || e instanceof ServerEvent.MemberInfo
+                || e instanceof ServerEvent.ExpenseAdded || e instanceof ServerEvent.SplitAdded
+                || e instanceof ServerEvent.GroupReset || e instanceof ServerEvent.GroupVersion;
+    }
+
+    private static void write(ServerEvent e, DataOutputStream out) throws IOException {
+        if (e instanceof ServerEvent.GroupInfo g) {
+            out.writeByte(GROUP);
+            out.writeInt(g.id());
+            out.writeUTF(g.name());
+            out.writeUTF(g.category());
+        } else if (e instanceof ServerEvent.MemberInfo m) {
+            out.writeByte(MEMBER);
+            out.writeInt(m.id());
+            out.writeUTF(m.name());
+            out.writeInt(m.groupId());
+        } else if (e instanceof ServerEvent.ExpenseAdded x) {
+            out.writeByte(EXPENSE);
+            out.writeInt(x.id());
+            out.writeInt(x.groupId());
+            out.writeUTF(x.payer());
+            out.writeDouble(x.amount());
+            out.writeUTF(x.description());
+        } else if (e instanceof ServerEvent.SplitAdded sp) {
+            out.writeByte(SPLIT);
+            out.writeInt(sp.expenseId());
+            out.writeInt(sp.memberId());
+            out.writeDouble(sp.amount());
+        } else if (e instanceof ServerEvent.GroupReset r) {
+            out.writeByte(RESET);
+            out.writeInt(r.groupId());
+        } else if (e instanceof ServerEvent.GroupVersion v) {
+            out.writeByte(VERSION);
+            out.writeInt(v.groupId());
+            out.writeUTF(v.version());
+        }
+    }
+
+    private static ServerEvent read(int tag, DataInputStream in) throws IOException {
+        return switch (tag) {
+            case GROUP -> new ServerEvent.GroupInfo(in.readInt(), in.readUTF(), in.readUTF());
+            case MEMBER -> new ServerEvent.MemberInfo(in.readInt(), in.readUTF(), in.readInt());
+            case EXPENSE -> new ServerEvent.ExpenseAdded(in.readInt(), in.readInt(), in.readUTF(), in.readDouble(), in.readUTF());
+            case SPLIT -> new ServerEvent.SplitAdded(in.readInt(), in.readInt(), in.readDouble());
+            case RESET -> new ServerEvent.GroupReset(in.readInt());
+            case VERSION -> new ServerEvent.GroupVersion(in.readInt(), in.readUTF());
+            default -> throw new IOException("bad record tag " + tag);
+        };
+    }
+}
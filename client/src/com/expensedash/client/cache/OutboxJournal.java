@@ -0,0 +1,111 @@
+package com.expensedash.client.cache;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Mutations made while the server is unreachable, kept on disk until the server
+ * has applied them.
+ *
+ * One line per mutation, "key|COMMAND|args", which is also the item format of a
+ * BATCH_BEGIN ... BATCH_END upload. Each append is synced to disk before the next
+ * one starts, so a queued expense survives a crash or a restart of the client.
+ * A torn last line (no trailing newline) is ignored.
+ *
+ * All file access runs in order on one background thread.
+ *
+ * Location: next to the ledger cache, ~/.expensedash/cache/&lt;user&gt;@&lt;host&gt;.outbox
+ */
+public final class OutboxJournal {
+    private final Path file;
+    private final ExecutorService io = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "outbox-journal");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private OutboxJournal(Path file) {
+        this.file = file;
+    }
+
+    public static OutboxJournal forUser(String host, String user) {
+        return new OutboxJournal(LedgerCache.fileFor(host, user, ".outbox"));
+    }
+
+    /** Queues {@code key|cmd} for the journal. */
+    public void append(String key, String cmd) {
+        byte[] line = (key + "|" + cmd + "\n").getBytes(StandardCharsets.UTF_8);
+        io.execute(() -> {
+            try {
+                Files.createDirectories(file.getParent());
+                try (FileOutputStream out = new FileOutputStream(file.toFile(), true)) {
+                    out.write(line);
+                    out.getFD().sync();
+                }
+            } catch (IOException e) {
+                System.out.println("[Outbox] Append failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /** Every complete journal line, after all earlier appends have been written. */
+    public CompletableFuture<List<String>> entries() {
+        return CompletableFuture.supplyAsync(this::read, io);
+    }
+
+    /** Removes the entries whose key is in {@code keys}. */
+    public void remove(Collection<String> keys) {
+        if (keys.isEmpty()) return;
+        io.execute(() -> {
+            List<String> keep = new ArrayList<>();
+            for (String line : read()) {
+                if (!keys.contains(keyOf(line))) keep.add(line);
+            }
+            try {
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                StringBuilder sb = new StringBuilder();
+                for (String line : keep) sb.append(line).append('\n');
+                Files.writeString(tmp, sb, StandardCharsets.UTF_8);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.out.println("[Outbox] Rewrite failed: " + e.getMessage());
+            }
+        });
+    }
+
+    public static String keyOf(String line) {
+        int bar = line.indexOf('|');
+        return bar < 0 ? line : line.substring(0, bar);
+    }
+
+    /** The command part of a journal line. */
+    public static String commandOf(String line) {
+        return line.substring(line.indexOf('|') + 1);
+    }
+
+    private List<String> read() {
+        List<String> lines = new ArrayList<>();
+        if (!Files.isRegularFile(file)) return lines;
+        try {
+            String text = Files.readString(file, StandardCharsets.UTF_8);
+            int start = 0, nl;
+            while ((nl = text.indexOf('\n', start)) >= 0) {
+                if (nl > start) lines.add(text.substring(start, nl));
+                start = nl + 1;
+            }
+        } catch (IOException e) {
+            System.out.println("[Outbox] Read failed: " + e.getMessage());
+        }
+        return lines;
+    }
+}
@@ -1,7 +1,14 @@
 package com.expensedash.client.controllers;
 
 import com.expensedash.client.Session;
+import com.expensedash.client.cache.LedgerCache;
+import com.expensedash.client.cache.OutboxJournal;
+import com.expensedash.client.jfr.FxDrainEvent;
+import com.expensedash.client.jfr.RefreshEvent;
+import com.expensedash.client.net.LedgerDownload;
 import com.expensedash.client.net.NetClient;
+import com.expensedash.client.net.ServerEvent;
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -11,20 +18,31 @@ import javafx.fxml.Initializable;
 import javafx.scene.Scene;
 import javafx.scene.chart.PieChart;
 import javafx.scene.control.*;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
+import java.io.File;
 import java.net.URL;
+import java.time.YearMonth;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class DashboardController implements Initializable {
 
     // --- UI Elements (FXML bindings) ---
     @FXML private Label welcomeLabel;
+    @FXML private Label overallSummary;
     @FXML private TextField groupSearch;
     @FXML private ListView<String> groupList;
     @FXML private Label totalPaid;
     @FXML private Label totalOwed;
     @FXML private Label totalReceivable;
+    @FXML private Label monthTotal;
+    @FXML private Label archivedSummary;
     @FXML private TableView<BalanceRow> balancesTable;
     @FXML private TableColumn<BalanceRow, String> colName;
     @FXML private TableColumn<BalanceRow, String> colAmount;
@@ -42,7 +60,37 @@ public class DashboardController implements Initializable {
     private final Map<Integer, String> groups = new HashMap<>();
     private final Map<Integer, Expense> expenses = new HashMap<>();
     private final Map<Integer, Map<Integer, Double>> splits = new HashMap<>();
+    private final Map<Integer, Integer> memberGroups = new HashMap<>();
     private int selectedGroup = 1;
+    // This month's spending in monthGroup, from the server's rollup table plus live expenses since
+    private double monthSpent;
+    private int monthGroup = -1;
+    // Typing in the search box sends one SEARCH_GROUP once the user pauses, not one per key
+    private final PauseTransition searchPause = new PauseTransition(Duration.millis(250));
+    // IMPORT_REJECTED lines ("line|reason") that arrive just before IMPORT_OK
+    private final List<String> importRejections = new ArrayList<>();
+
+    // --- Local cache: paint from disk, then fetch only groups whose version changed ---
+    private LedgerCache cache;
+    private final Map<Integer, String> versions = new HashMap<>();
+    private final Set<Integer> snapshotGroups = new HashSet<>();
+    private boolean replaying;
+
+    // Expenses shown before the server confirmed them have negative ids
+    private int nextProvisionalId = -1;
+    // Mutations made while offline, journaled until a BATCH upload succeeds
+    private OutboxJournal outbox;
+    private final Map<String, Integer> provisionalByKey = new ConcurrentHashMap<>();
+    // Server id → provisional id, filled from the reply on the reader thread so the
+    // EXPENSE broadcast that follows can replace the provisional row
+    private final Map<Integer, Integer> provisionalByRealId = new ConcurrentHashMap<>();
+    private boolean outboxFlushing;
+
+    // --- Inbound events (reader thread → FX thread) ---
+    private final ConcurrentLinkedQueue<ServerEvent> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private volatile long drainScheduledAt; // System.nanoTime() of the pending runLater
+    private boolean inSnapshot;
 
     @Override
     public void initialize(URL url, ResourceBundle rb) {
@@ -56,6 +104,7 @@ public class DashboardController implements Initializable {
             if (newVal != null) {
                 selectedGroup = groupNameToId(newVal);
                 refreshUI();
+                requestMonthTotal();
             }
         });
 
@@ -63,132 +112,268 @@ public class DashboardController implements Initializable {
         groupSearch.textProperty().addListener((obs, old, query) -> {
             if (net == null) return;
             if (query == null || query.isBlank()) {
-                net.send("REQUEST_SNAPSHOT");
+                searchPause.stop();
+                requestSnapshot();
                 return;
             }
-            net.send("SEARCH_GROUP|" + query.trim());
+            searchPause.setOnFinished(e -> net.send("SEARCH_GROUP|" + query.trim()));
+            searchPause.playFromStart();
         });
     }
 
     /** Called from LoginController after login succeeds */
     public void initWithNetClient(NetClient net) {
         this.net = net;
+        this.net.setEventHandler(this::onEvent);
+
+        // Paint the cached ledger first, then ask the server only for what changed
+        cache = LedgerCache.forUser(net.host(), Session.getCurrentUser());
+        outbox = OutboxJournal.forUser(net.host(), Session.getCurrentUser());
+        CompletableFuture.supplyAsync(cache::load).whenComplete((cached, err) -> Platform.runLater(() -> {
+            if (cached != null && !cached.isEmpty()) {
+                replaying = true;
+                for (ServerEvent event : cached) apply(event);
+                replaying = false;
+                refreshUI();
+            }
+            requestSnapshot();
+            restoreOutbox();
+        }));
+    }
 
-        try {
-            this.net.send("REQUEST_SNAPSHOT");
-        } catch (Exception e) {
-            showError("Failed to request data: " + e.getMessage());
-        }
+    /**
+     * Asks for the selected group's spending this month and its archived totals; the
+     * server reads both from its rollup tables.
+     */
+    private void requestMonthTotal() {
+        if (net == null || !net.isConnected()) return;
+        int gid = selectedGroup;
+        net.request("ROLLUP|" + gid + "|" + YearMonth.now() + "|by=payer").whenComplete((reply, err) -> Platform.runLater(() -> {
+            if (err != null || gid != selectedGroup) return;
+            double total = 0;
+            for (ServerEvent e : reply) {
+                if (e instanceof ServerEvent.RollupRow r) total += r.total();
+            }
+            monthGroup = gid;
+            monthSpent = total;
+            refreshUI();
+        }));
+        net.request("ARCHIVED|" + gid).whenComplete((reply, err) -> Platform.runLater(() -> {
+            if (err != null || gid != selectedGroup) return;
+            archivedSummary.setText("");
+            for (ServerEvent e : reply) {
+                if (e instanceof ServerEvent.GroupArchived a && a.count() > 0)
+                    archivedSummary.setText(String.format("Archived in this group: %d expenses, $%.2f", a.count(), a.total()));
+            }
+        }));
+    }
 
-        this.net.setMessageHandler(this::onMessage);
+    /** REQUEST_SNAPSHOT listing every group version we hold, so unchanged groups are skipped. */
+    private void requestSnapshot() {
+        StringBuilder cmd = new StringBuilder("REQUEST_SNAPSHOT");
+        versions.forEach((gid, v) -> cmd.append('|').append(gid).append(':').append(v));
+        net.send(cmd.toString());
     }
 
-    // --- Message Handling ---
-    private void onMessage(String line) {
-        if (line == null || line.isBlank()) return;
+    // --- Event Handling ---
 
-        // ── Handle search feedback ──
-        if (line.equals("SEARCH_BEGIN")) {
-            Platform.runLater(() -> groupList.getItems().clear());
-            return;
+    /** Called on the NetClient reader thread; queues the event for the FX thread. */
+    private void onEvent(ServerEvent event) {
+        inbox.add(event);
+        if (drainScheduled.compareAndSet(false, true)) {
+            drainScheduledAt = System.nanoTime();
+            Platform.runLater(this::drainEvents);
         }
-        if (line.startsWith("SEARCH_RESULT|")) {
-            String[] p = line.split("\\|", 4);
-            if (p.length >= 4) {
-                int gid = Integer.parseInt(p[1]);  // group ID
-                String gName = p[2];               // group name
-                String category = p[3];            // category (optional, not used here)
-
-                Platform.runLater(() -> {
-                    // ✅ store ID→name for joining later
-                    groups.put(gid, gName);
+    }
 
-                    // ✅ display name if not already shown
-                    if (!groupList.getItems().contains(gName)) {
-                        groupList.getItems().add(gName);
-                    }
-                });
-            }
-            return;
+    /** Applies every queued event in one FX pulse and refreshes the UI at most once. */
+    private void drainEvents() {
+        FxDrainEvent drain = new FxDrainEvent();
+        drain.begin();
+        long queued = System.nanoTime() - drainScheduledAt;
+        drainScheduled.set(false);
+        boolean dirty = false;
+        int drained = 0;
+        ServerEvent event;
+        while ((event = inbox.poll()) != null) {
+            dirty |= apply(event);
+            drained++;
         }
-
-        if (line.equals("SEARCH_END")) {
-            Platform.runLater(() -> {
-                if (!groupList.getItems().isEmpty())
-                    groupList.getSelectionModel().select(0);
-            });
-            return;
+        if (dirty && !inSnapshot) refreshUI();
+        drain.end();
+        if (drain.shouldCommit()) {
+            drain.queueTime = queued;
+            drain.events = drained;
+            drain.commit();
         }
+    }
 
-        // ── Handle join and snapshot ──
-        if (line.startsWith("ADD_GROUP_OK|")) {
-            String[] p = line.split("\\|");
-            int gid = (p.length > 1) ? Integer.parseInt(p[1]) : -1;
-            Platform.runLater(() -> {
-                net.send("REQUEST_SNAPSHOT");
-                // after short delay, select the new group by id
-                new Thread(() -> {
-                    try { Thread.sleep(500); } catch (InterruptedException ignored) {}
-                    Platform.runLater(() -> {
-                        String gName = groups.get(gid);
-                        if (gName != null) groupList.getSelectionModel().select(gName);
-                    });
-                }).start();
-            });
-            return;
+    /** @return true if the ledger changed and the dashboard needs repainting */
+    private boolean apply(ServerEvent event) {
+        // ── Handle search feedback ──
+        if (event instanceof ServerEvent.SearchBegin) {
+            groupList.getItems().clear();
+            return false;
         }
+        if (event instanceof ServerEvent.SearchResult r) {
+            // ✅ store ID→name for joining later
+            groups.put(r.groupId(), r.name());
 
+            // ✅ display name if not already shown
+            if (!groupList.getItems().contains(r.name())) {
+                groupList.getItems().add(r.name());
+            }
+            return false;
+        }
+        if (event instanceof ServerEvent.SearchEnd) {
+            if (!groupList.getItems().isEmpty())
+                groupList.getSelectionModel().select(0);
+            return false;
+        }
 
-        if (line.equals("SNAPSHOT_BEGIN")) {
-            groups.clear(); members.clear(); expenses.clear(); splits.clear();
-            return;
+        // ── Snapshots: groups are replaced one by one, never cleared wholesale ──
+        if (event instanceof ServerEvent.SnapshotBegin) {
+            snapshotGroups.clear();
+            inSnapshot = true;
+            return false;
         }
-        if (line.equals("SNAPSHOT_END")) {
-            Platform.runLater(this::refreshUI);
-            return;
+        if (event instanceof ServerEvent.GroupUnchanged u) {
+            snapshotGroups.add(u.groupId());
+            return false;
+        }
+        if (event instanceof ServerEvent.GroupVersion v) {
+            versions.put(v.groupId(), v.version());
+            return false;
+        }
+        if (event instanceof ServerEvent.SnapshotEnd) {
+            inSnapshot = false;
+            // Groups the server no longer lists are not ours (or were only search hits)
+            for (Integer gid : new ArrayList<>(groups.keySet())) {
+                if (!snapshotGroups.contains(gid)) dropGroup(gid);
+            }
+            saveCache();
+            requestMonthTotal();
+            if (net != null && !replaying) net.send("USER_SUMMARY");
+            return true;
         }
 
         // ── Regular data from server ──
-        String[] p = line.split("\\|");
-        try {
-            switch (p[0]) {
-                case "GROUP" -> {
-                    int gid = Integer.parseInt(p[1]);
-                    String name = p[2];
-                    groups.put(gid, name);
-                }
-                case "MEMBER" -> {
-                    int mid = Integer.parseInt(p[1]);
-                    String name = p[2];
-                    members.put(mid, name);
-                }
-                case "EXPENSE" -> {
-                    int id = Integer.parseInt(p[1]);
-                    int gid = Integer.parseInt(p[2]);
-                    String payer = p[3];
-                    double amt = Double.parseDouble(p[4]);
-                    String desc = p[5];
-                    expenses.put(id, new Expense(id, gid, payer, amt, desc));
-                }
-                case "SPLIT" -> {
-                    int eid = Integer.parseInt(p[1]);
-                    int mid = Integer.parseInt(p[2]);
-                    double a = Double.parseDouble(p[3]);
-                    splits.computeIfAbsent(eid, k -> new HashMap<>()).put(mid, a);
-                }
-                case "RESET" -> {
-                    int gid = Integer.parseInt(p[1]);
-                    if (gid == selectedGroup) { expenses.clear(); splits.clear(); }
-                }
-                case "MEMBER_ADDED" -> {
-                    // Trigger snapshot refresh when new member joins
-                    if (net != null) net.send("REQUEST_SNAPSHOT");
-                }
+        int changedGroup;
+        if (event instanceof ServerEvent.GroupInfo g) {
+            if (inSnapshot) {
+                snapshotGroups.add(g.id());
+                clearGroup(g.id());
             }
-            Platform.runLater(this::refreshUI);
-        } catch (Exception e) {
-            System.err.println("[Dashboard] Failed to parse message: " + line + " → " + e);
+            groups.put(g.id(), g.name());
+            changedGroup = g.id();
+        } else if (event instanceof ServerEvent.MemberInfo m) {
+            members.put(m.id(), m.name());
+            memberGroups.put(m.id(), m.groupId());
+            changedGroup = m.groupId();
+        } else if (event instanceof ServerEvent.ExpenseAdded e) {
+            expenses.put(e.id(), new Expense(e.id(), e.groupId(), e.payer(), e.amount(), e.description()));
+            changedGroup = e.groupId();
+            if (!inSnapshot && !replaying && e.groupId() == monthGroup) monthSpent += e.amount();
+            Integer tmpId = provisionalByRealId.remove(e.id());
+            if (tmpId != null) dropProvisional(tmpId);
+        } else if (event instanceof ServerEvent.SplitAdded sp) {
+            splits.computeIfAbsent(sp.expenseId(), k -> new HashMap<>()).put(sp.memberId(), sp.amount());
+            changedGroup = -1; // always follows its ExpenseAdded
+        } else if (event instanceof ServerEvent.GroupReset r) {
+            clearExpenses(r.groupId());
+            changedGroup = r.groupId();
+        } else if (event instanceof ServerEvent.GroupImported imp) {
+            // Bulk import finished somewhere; reload instead of replaying every row
+            if (groups.containsKey(imp.groupId()) && net != null) requestSnapshot();
+            return false;
+        } else if (event instanceof ServerEvent.MemberJoined j) {
+            // Someone else joined one of our groups: refresh to pick up their member id
+            if (groups.containsKey(j.groupId()) && !j.username().equals(Session.getCurrentUser()) && net != null)
+                requestSnapshot();
+            return false;
+        } else if (event instanceof ServerEvent.UserSummary u) {
+            // Kept current by the server: pushed whenever one of our groups changes
+            overallSummary.setText(String.format("All groups: paid $%.2f, owed $%.2f, receivable $%.2f",
+                    u.paid(), u.owed(), u.receivable()));
+            return false;
+        } else if (event instanceof ServerEvent.Reply r && r.is("IMPORT_REJECTED")) {
+            importRejections.add(r.detail());
+            return false;
+        } else if (event instanceof ServerEvent.ImportResult r) {
+            StringBuilder msg = new StringBuilder("Imported " + r.imported() + " expenses (" + r.skipped() + " rows skipped).");
+            for (String rej : importRejections.subList(0, Math.min(5, importRejections.size()))) {
+                int bar = rej.indexOf('|');
+                msg.append("\nLine ").append(rej, 0, bar).append(": ").append(rej.substring(bar + 1));
+            }
+            if (importRejections.size() > 5) msg.append("\n...");
+            importRejections.clear();
+            showInfo(msg.toString());
+            return false;
+        } else if (event instanceof ServerEvent.Error err && err.code().equals("IMPORT_ERR")) {
+            importRejections.clear();
+            showError("Import failed: " + err.message());
+            return false;
+        } else if (event instanceof ServerEvent.Throttled t) {
+            // Only untagged commands get here; tagged ones are retried by NetClient
+            showError("The server is busy and skipped a request. Please try again in "
+                    + Math.max(1, (t.retryAfterMillis() + 999) / 1000) + " s.");
+            return false;
+        } else if (event instanceof ServerEvent.Reply r && r.is("RESUME_OK")) {
+            flushOutbox(); // back online
+            return false;
+        } else if (event instanceof ServerEvent.Error err && err.code().equals("RESUME_FAIL")) {
+            showError("Lost connection to the server and the session expired. Please log in again.");
+            return false;
+        } else {
+            return false;
+        }
+
+        // A live change makes our copy of the group newer than its cached version
+        if (!inSnapshot) {
+            if (changedGroup >= 0) versions.remove(changedGroup);
+            if (!replaying && cache != null) cache.append(event);
+        }
+        return true;
+    }
+
+    private void clearExpenses(int gid) {
+        expenses.values().removeIf(e -> {
+            if (e.groupId != gid) return false;
+            splits.remove(e.id);
+            return true;
+        });
+    }
+
+    private void clearGroup(int gid) {
+        clearExpenses(gid);
+        memberGroups.entrySet().removeIf(m -> {
+            if (m.getValue() != gid) return false;
+            members.remove(m.getKey());
+            return true;
+        });
+    }
+
+    private void dropGroup(int gid) {
+        clearGroup(gid);
+        groups.remove(gid);
+        versions.remove(gid);
+    }
+
+    /** Hands the current ledger to the cache, which rewrites its file in the background. */
+    private void saveCache() {
+        if (cache == null) return;
+        List<ServerEvent> state = new ArrayList<>(groups.size() + members.size() + expenses.size() * 3);
+        groups.forEach((id, name) -> state.add(new ServerEvent.GroupInfo(id, name, "")));
+        members.forEach((id, name) -> state.add(new ServerEvent.MemberInfo(id, name, memberGroups.getOrDefault(id, 0))));
+        for (Expense e : expenses.values()) {
+            if (e.id < 0) continue; // provisional, not confirmed yet
+            state.add(new ServerEvent.ExpenseAdded(e.id, e.groupId, e.payer, e.amount, e.description));
+            splits.getOrDefault(e.id, Map.of())
+                    .forEach((mid, amt) -> state.add(new ServerEvent.SplitAdded(e.id, mid, amt)));
         }
+        // Versions last, so replaying the data does not invalidate them
+        versions.forEach((gid, v) -> state.add(new ServerEvent.GroupVersion(gid, v)));
+        cache.rewrite(state);
     }
 
     // --- UI Actions ---
@@ -206,6 +391,10 @@ public class DashboardController implements Initializable {
             if (desc == null || desc.isBlank()) {
                 desc = "General expense";
             }
+            if (desc.indexOf('|') >= 0) {
+                showError("The description cannot contain '|'.");
+                return;
+            }
 
             double amt = Double.parseDouble(amountText);
             if (amt <= 0) {
@@ -213,8 +402,7 @@ public class DashboardController implements Initializable {
                 return;
             }
 
-            net.send("ADD_EXPENSE|" + selectedGroup + "|" + Session.getCurrentUser()
-                    + "|" + amt + "|" + desc);
+            addExpenseOptimistically(selectedGroup, amt, desc);
 
             expenseAmount.clear();
             expenseDescription.clear();
@@ -225,6 +413,140 @@ public class DashboardController implements Initializable {
         }
     }
 
+    /**
+     * Shows the expense at once under a provisional id, then swaps it for the server's
+     * row when the EXPENSE broadcast that follows ADD_EXPENSE_OK arrives, or removes it
+     * again on ADD_EXPENSE_ERR.
+     * The idempotency key makes the retry after a reconnect safe. While the server is
+     * unreachable the command goes to the on-disk outbox instead.
+     */
+    private void addExpenseOptimistically(int gid, double amt, String desc) {
+        String me = Session.getCurrentUser();
+        String key = UUID.randomUUID().toString();
+        String cmd = "ADD_EXPENSE|" + gid + "|" + me + "|" + amt + "|" + desc;
+        int tmpId = showProvisional(gid, me, amt, desc);
+        refreshUI();
+
+        if (!net.isConnected()) {
+            outbox.append(key, cmd);
+            provisionalByKey.put(key, tmpId);
+            return;
+        }
+        net.request(cmd, key, ev -> {
+            if (ev instanceof ServerEvent.Reply ok && ok.is("ADD_EXPENSE_OK")) provisionalByRealId.put(ok.detailInt(), tmpId);
+        }).whenComplete((reply, err) -> Platform.runLater(() -> {
+            ServerEvent first = err != null || reply.isEmpty() ? null : reply.get(0);
+            if (first instanceof ServerEvent.Reply ok && ok.is("ADD_EXPENSE_OK")) {
+                confirmProvisional(tmpId, ok.detailInt());
+            } else {
+                dropProvisional(tmpId);
+                showError("Expense \"" + desc + "\" was not saved: "
+                        + (err != null ? err.getMessage() : first instanceof ServerEvent.Error e ? e.message() : first));
+            }
+            refreshUI();
+        }));
+    }
+
+    /** Adds a not-yet-confirmed expense with the same equal split the server computes. */
+    private int showProvisional(int gid, String payer, double amt, String desc) {
+        int tmpId = nextProvisionalId--;
+        expenses.put(tmpId, new Expense(tmpId, gid, payer, amt, desc));
+        List<Integer> groupMembers = new ArrayList<>();
+        memberGroups.forEach((mid, g) -> { if (g == gid) groupMembers.add(mid); });
+        double per = Math.round((amt / Math.max(1, groupMembers.size())) * 100.0) / 100.0;
+        Map<Integer, Double> sp = new HashMap<>();
+        for (int mid : groupMembers) sp.put(mid, per);
+        splits.put(tmpId, sp);
+        return tmpId;
+    }
+
+    /**
+     * Replaces a provisional row by the server's once the request is done. The server
+     * replies before it broadcasts, so the broadcast has normally swapped the row
+     * already; this covers a duplicate, which is not broadcast again.
+     */
+    private void confirmProvisional(int tmpId, int realId) {
+        provisionalByRealId.remove(realId);
+        Expense p = expenses.remove(tmpId);
+        Map<Integer, Double> sp = splits.remove(tmpId);
+        if (p != null && !expenses.containsKey(realId)) {
+            expenses.put(realId, new Expense(realId, p.groupId, p.payer, p.amount, p.description));
+            if (sp != null) splits.put(realId, sp);
+        }
+    }
+
+    private void dropProvisional(int tmpId) {
+        expenses.remove(tmpId);
+        splits.remove(tmpId);
+    }
+
+    /** Shows expenses queued in an earlier session, then tries to send them. */
+    private void restoreOutbox() {
+        outbox.entries().thenAccept(lines -> Platform.runLater(() -> {
+            for (String line : lines) {
+                String key = OutboxJournal.keyOf(line);
+                if (provisionalByKey.containsKey(key)) continue;
+                String[] f = OutboxJournal.commandOf(line).split("\\|", 5);
+                try {
+                    provisionalByKey.put(key, showProvisional(Integer.parseInt(f[1]), f[2], Double.parseDouble(f[3]), f.length > 4 ? f[4] : ""));
+                } catch (RuntimeException e) {
+                    System.out.println("[Outbox] Skipping unreadable entry: " + line);
+                }
+            }
+            if (!lines.isEmpty()) refreshUI();
+            flushOutbox();
+        }));
+    }
+
+    /**
+     * Sends every queued mutation in one BATCH_BEGIN ... BATCH_END request, which the
+     * server applies in a single transaction. Entries stay journaled if the connection
+     * fails again; a batch the server rejects is dropped, since resending cannot help.
+     */
+    private void flushOutbox() {
+        if (outboxFlushing || outbox == null || !net.isConnected()) return;
+        outboxFlushing = true;
+        outbox.entries().thenAccept(lines -> {
+            if (lines.isEmpty()) {
+                Platform.runLater(() -> outboxFlushing = false);
+                return;
+            }
+            List<String> body = new ArrayList<>(lines);
+            body.add("BATCH_END");
+            net.requestBatch("BATCH_BEGIN|" + lines.size(), body, ev -> {
+                if (ev instanceof ServerEvent.Reply r && r.is("BATCH_ITEM")) {
+                    int bar = r.detail().lastIndexOf('|');
+                    Integer tmpId = provisionalByKey.get(r.detail().substring(0, bar));
+                    if (tmpId != null) provisionalByRealId.put(Integer.parseInt(r.detail().substring(bar + 1)), tmpId);
+                }
+            }).whenComplete((reply, err) -> Platform.runLater(() -> {
+                outboxFlushing = false;
+                if (err != null) return; // still journaled; retried on the next reconnect
+                List<String> sent = lines.stream().map(OutboxJournal::keyOf).toList();
+                // Only entries the server answered for leave the journal
+                List<String> settled = new ArrayList<>();
+                for (ServerEvent e : reply) {
+                    if (e instanceof ServerEvent.Reply r && r.is("BATCH_ITEM")) {
+                        int bar = r.detail().lastIndexOf('|');
+                        String key = r.detail().substring(0, bar);
+                        settled.add(key);
+                        Integer tmpId = provisionalByKey.remove(key);
+                        if (tmpId != null) confirmProvisional(tmpId, Integer.parseInt(r.detail().substring(bar + 1)));
+                    } else if (e instanceof ServerEvent.Error x && x.code().equals("BATCH_ERR")) {
+                        for (String key : sent) {
+                            Integer tmpId = provisionalByKey.remove(key);
+                            if (tmpId != null) dropProvisional(tmpId);
+                        }
+                        settled.addAll(sent);
+                        showError("Offline changes were rejected by the server: " + x.message());
+                    }
+                }
+                outbox.remove(settled);
+                refreshUI();
+            }));
+        });
+    }
+
     @FXML
     private void onSettleBalances() {
         Alert confirm = new Alert(Alert.AlertType.CONFIRMATION,
@@ -252,12 +574,27 @@ public class DashboardController implements Initializable {
                 return;
             }
 
-            try {
-                net.send("ADD_GROUP|" + gName + "|General");
+            // The server answers ADD_GROUP_OK and then a fresh snapshot; by the time the
+            // request completes the new group is already in `groups`.
+            net.request("ADD_GROUP|" + gName + "|General").whenComplete((reply, err) -> {
+                if (err != null) {
+                    showError("Failed to create group: " + err.getMessage());
+                    return;
+                }
+                ServerEvent first = reply.isEmpty() ? null : reply.get(0);
+                if (!(first instanceof ServerEvent.Reply ok && ok.is("ADD_GROUP_OK"))) {
+                    showError(first instanceof ServerEvent.Error e && e.message().equals("DUPLICATE")
+                            ? "A group named \"" + gName + "\" already exists."
+                            : "Failed to create group: " + first);
+                    return;
+                }
+                int gid = ok.detailInt();
+                Platform.runLater(() -> {
+                    String name = groups.get(gid);
+                    if (name != null) groupList.getSelectionModel().select(name);
+                });
                 showInfo("Group \"" + gName + "\" created successfully!");
-            } catch (Exception e) {
-                showError("Failed to create group: " + e.getMessage());
-            }
+            });
         });
     }
 
@@ -265,7 +602,7 @@ public class DashboardController implements Initializable {
     @FXML
     private void onRefresh() {
         if (net != null) {
-            net.send("REQUEST_SNAPSHOT");
+            requestSnapshot();
             showInfo("Dashboard refreshed.");
         }
     }
@@ -302,14 +639,34 @@ public class DashboardController implements Initializable {
             }
 
             int gid = groupNameToId(selected);
-            net.send("JOIN_GROUP|" + gid);
-            showInfo("Joining group \"" + selected + "\"...");
+            net.request("JOIN_GROUP|" + gid).whenComplete((reply, err) -> {
+                if (err == null && !reply.isEmpty() && reply.get(0) instanceof ServerEvent.Reply r && r.is("JOIN_OK")) {
+                    showInfo("Joined group \"" + selected + "\".");
+                } else {
+                    showError("Failed to join group: " + (err != null ? err.getMessage()
+                            : reply.isEmpty() ? "no reply" : reply.get(0)));
+                }
+            });
         } catch (Exception e) {
             showError("Failed to join group: " + e.getMessage());
         }
     }
 
 
+    @FXML
+    private void onViewReports() {
+        try {
+            FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/reports.fxml"));
+            Stage stage = new Stage();
+            stage.setTitle("Reports");
+            stage.setScene(new Scene(loader.load(), 900, 480));
+            ((ReportsController) loader.getController()).init(net);
+            stage.show();
+        } catch (Exception e) {
+            showError("Failed to open reports: " + e.getMessage());
+        }
+    }
+
     @FXML
     private void onViewHistory() {
         try {
@@ -335,6 +692,42 @@ public class DashboardController implements Initializable {
         }
     }
 
+    @FXML
+    private void onImportCsv() {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Import expenses (payer,amount,description[,date])");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV files", "*.csv"));
+        File file = chooser.showOpenDialog(welcomeLabel.getScene().getWindow());
+        if (file == null || net == null) return;
+
+        // NetClient's writer thread streams the file; nothing is read on the FX thread
+        net.sendFile("IMPORT_BEGIN|" + selectedGroup, file.toPath(), "IMPORT_END")
+                .exceptionally(e -> {
+                    showError("Failed to read " + file.getName() + ": " + e.getMessage());
+                    return null;
+                });
+    }
+
+    @FXML
+    private void onExportLedger() {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Export group ledger");
+        chooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("CSV files", "*.csv"),
+                new FileChooser.ExtensionFilter("JSON files", "*.json"));
+        chooser.setInitialFileName(groups.getOrDefault(selectedGroup, "ledger") + ".csv");
+        File file = chooser.showSaveDialog(welcomeLabel.getScene().getWindow());
+        if (file == null || net == null) return;
+
+        String format = file.getName().toLowerCase().endsWith(".json") ? "json" : "csv";
+        LedgerDownload[] d = new LedgerDownload[1];
+        d[0] = new LedgerDownload(file.toPath(), err -> {
+            if (err == null) showInfo("Exported " + d[0].rows() + " rows to " + file.getName());
+            else showError("Export failed: " + err);
+        });
+        net.download(selectedGroup, format, d[0]);
+    }
+
     @FXML
     private void onLogout() {
         try {
@@ -352,6 +745,18 @@ public class DashboardController implements Initializable {
 
     // --- UI Helpers ---
     private void refreshUI() {
+        RefreshEvent event = new RefreshEvent();
+        event.begin();
+        paint();
+        event.end();
+        if (event.shouldCommit()) {
+            event.groups = groups.size();
+            event.expenses = expenses.size();
+            event.commit();
+        }
+    }
+
+    private void paint() {
         ObservableList<String> gitems = FXCollections.observableArrayList(groups.values());
         groupList.setItems(gitems);
         if (!gitems.isEmpty() && groupList.getSelectionModel().getSelectedIndex() < 0) {
@@ -394,6 +799,7 @@ public class DashboardController implements Initializable {
         totalPaid.setText(String.format("$%.2f", paid));
         totalOwed.setText(String.format("$%.2f", owed));
         totalReceivable.setText(String.format("$%.2f", recv));
+        monthTotal.setText(monthGroup == selectedGroup ? String.format("$%.2f", monthSpent) : "...");
 
         ObservableList<BalanceRow> rows = FXCollections.observableArrayList();
         for (var en : balanceByName.entrySet()) {
@@ -2,6 +2,7 @@ package com.expensedash.client.controllers;
 
 import com.expensedash.client.Session;
 import com.expensedash.client.net.NetClient;
+import com.expensedash.client.net.ServerEvent;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -77,21 +78,22 @@ public class LoginController {
     /** Connect and send LOGIN */
     private void connectAndLogin(String username, String password) {
         try {
-            net.connect(serverIP, 5055, line -> {
-                if ("LOGIN_OK".equals(line)) {
+            net.connect(serverIP, 5055, event -> {
+                if (event instanceof ServerEvent.Reply r && r.is("LOGIN_OK")) {
                     Platform.runLater(() -> {
                         Session.setCurrentUser(username);
                         showInfo("Login successful!");
                         openDashboard();
                     });
-                } else if (line.startsWith("LOGIN_FAIL")) {
+                } else if (event instanceof ServerEvent.Error e && e.code().equals("LOGIN_FAIL")) {
                     Platform.runLater(() -> showError("Invalid username or password."));
-                } else if (line.startsWith("LOGIN_ERR")) {
-                    Platform.runLater(() -> showError("Server error: " + line));
+                } else if (event instanceof ServerEvent.Error e && e.code().equals("LOGIN_ERR")) {
+                    Platform.runLater(() -> showError("Server error: " + e.message()));
                 }
             });
 
-            net.send("LOGIN|" + username + "|" + hash(password));
+            // The dashboard requests its own snapshot against the local cache
+            net.send("LOGIN|" + username + "|" + hash(password) + "|NOSNAPSHOT");
 
         } catch (Exception e) {
             showError("Could not connect to server: " + e.getMessage());
@@ -101,20 +103,15 @@ public class LoginController {
     /** Connect and send REGISTER */
     private void connectAndRegister(String username, String password) {
         try {
-            net.connect(serverIP, 5055, line -> {
-                switch (line) {
-                    case "REGISTER_OK" -> Platform.runLater(() ->
-                            showInfo("Registered successfully! Please log in."));
-                    case "REGISTER_DUP" -> Platform.runLater(() ->
-                            showError("Username already exists."));
-                    default -> {
-                        if (line.startsWith("REGISTER_ERR|"))
-                            Platform.runLater(() ->
-                                    showError("Registration failed: " + line.substring("REGISTER_ERR|".length())));
-                        else
-                            Platform.runLater(() ->
-                                    showError("Unexpected response: " + line));
-                    }
+            net.connect(serverIP, 5055, event -> {
+                if (event instanceof ServerEvent.Reply r && r.is("REGISTER_OK")) {
+                    Platform.runLater(() -> showInfo("Registered successfully! Please log in."));
+                } else if (event instanceof ServerEvent.Reply r && r.is("REGISTER_DUP")) {
+                    Platform.runLater(() -> showError("Username already exists."));
+                } else if (event instanceof ServerEvent.Error e && e.code().equals("REGISTER_ERR")) {
+                    Platform.runLater(() -> showError("Registration failed: " + e.message()));
+                } else {
+                    Platform.runLater(() -> showError("Unexpected response: " + event));
                 }
             });
 
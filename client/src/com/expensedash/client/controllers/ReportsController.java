@@ -0,0 +1,87 @@
+package com.expensedash.client.controllers;
+
+import com.expensedash.client.net.NetClient;
+import com.expensedash.client.net.ServerEvent;
+import javafx.application.Platform;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.fxml.FXML;
+import javafx.scene.chart.BarChart;
+import javafx.scene.chart.XYChart;
+import javafx.scene.control.*;
+import javafx.stage.Stage;
+
+import java.util.List;
+
+/**
+ * Spending totals computed on the server (REPORT), shown as a table and a bar chart.
+ * Only aggregates travel over the wire, however many expenses they cover.
+ */
+public class ReportsController {
+
+    @FXML private ComboBox<String> groupBy;
+    @FXML private TextField fromField;
+    @FXML private TextField toField;
+    @FXML private TextField limitField;
+    @FXML private TableView<ServerEvent.ReportRow> reportTable;
+    @FXML private TableColumn<ServerEvent.ReportRow, String> colKey;
+    @FXML private TableColumn<ServerEvent.ReportRow, String> colTotal;
+    @FXML private TableColumn<ServerEvent.ReportRow, String> colCount;
+    @FXML private BarChart<String, Number> reportChart;
+    @FXML private Label statusLabel;
+
+    private NetClient net;
+
+    public void init(NetClient net) {
+        this.net = net;
+        groupBy.setItems(FXCollections.observableArrayList("payer", "category", "month", "group"));
+        groupBy.getSelectionModel().select(0);
+        colKey.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().key()));
+        colTotal.setCellValueFactory(c -> new SimpleStringProperty(String.format("$%.2f", c.getValue().total())));
+        colCount.setCellValueFactory(c -> new SimpleStringProperty(String.valueOf(c.getValue().count())));
+        onRun();
+    }
+
+    @FXML
+    private void onRun() {
+        String limit = limitField.getText() == null || limitField.getText().isBlank() ? "0" : limitField.getText().trim();
+        String cmd = "REPORT|" + groupBy.getValue() + "|" + bound(fromField) + "|" + bound(toField) + "|" + limit;
+        statusLabel.setText("Running...");
+        net.request(cmd).whenComplete((reply, err) -> Platform.runLater(() -> show(reply, err)));
+    }
+
+    private void show(List<ServerEvent> reply, Throwable err) {
+        if (err != null) {
+            statusLabel.setText("Report failed: " + err.getMessage());
+            return;
+        }
+        ObservableList<ServerEvent.ReportRow> rows = FXCollections.observableArrayList();
+        XYChart.Series<String, Number> series = new XYChart.Series<>();
+        String status = "";
+        for (ServerEvent e : reply) {
+            if (e instanceof ServerEvent.ReportRow r) {
+                rows.add(r);
+                series.getData().add(new XYChart.Data<>(r.key(), r.total()));
+            } else if (e instanceof ServerEvent.Reply r && r.is("REPORT_BEGIN")) {
+                String[] f = r.detail().split("\\|"); // by|scanned|micros
+                if (f.length == 3) status = "Scanned " + f[1] + " expenses in " + Long.parseLong(f[2]) / 1000 + " ms";
+            } else if (e instanceof ServerEvent.Error r) {
+                status = "Report failed: " + r.message();
+            }
+        }
+        reportTable.setItems(rows);
+        reportChart.getData().setAll(List.of(series));
+        statusLabel.setText(status);
+    }
+
+    private static String bound(TextField f) {
+        return f.getText() == null || f.getText().isBlank() ? "*" : f.getText().trim();
+    }
+
+    @FXML
+    private void onClose() {
+        Stage stage = (Stage) reportTable.getScene().getWindow();
+        stage.close();
+    }
+}
@@ -0,0 +1,20 @@
+package com.expensedash.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/** One drain of server events on the FX thread, with the time spent waiting for it. */
+@Name("expensedash.client.FxDrain")
+@Label("FX Event Drain")
+@Category({"ExpenseDash", "Client"})
+public class FxDrainEvent extends Event {
+    @Label("Queue Time")
+    @Timespan
+    public long queueTime;
+
+    @Label("Events")
+    public int events;
+}
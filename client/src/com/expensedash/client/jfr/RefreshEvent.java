@@ -0,0 +1,17 @@
+package com.expensedash.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("expensedash.client.Refresh")
+@Label("Dashboard Refresh")
+@Category({"ExpenseDash", "Client"})
+public class RefreshEvent extends Event {
+    @Label("Groups")
+    public int groups;
+
+    @Label("Expenses")
+    public int expenses;
+}
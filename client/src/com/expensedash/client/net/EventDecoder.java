@@ -0,0 +1,88 @@
+package com.expensedash.client.net;
+
+/**
+ * Turns one protocol line into a {@link ServerEvent}.
+ * Fields are located with indexOf, never with a regex split.
+ */
+public final class EventDecoder {
+    private final String line;
+    private int pos;
+
+    private EventDecoder(String line, int pos) {
+        this.line = line;
+        this.pos = pos;
+    }
+
+    /** @return the decoded event, or null for lines this client does not understand */
+    public static ServerEvent decode(String line) {
+        int bar = line.indexOf('|');
+        String op = bar < 0 ? line : line.substring(0, bar);
+        EventDecoder f = new EventDecoder(line, bar < 0 ? line.length() + 1 : bar + 1);
+        try {
+            return switch (op) {
+                case "GROUP" -> new ServerEvent.GroupInfo(f.nextInt(), f.next(), f.restOr(""));
+                case "MEMBER" -> f.member();
+                case "EXPENSE" -> new ServerEvent.ExpenseAdded(f.nextInt(), f.nextInt(), f.next(), f.nextDouble(), f.restOr(""));
+                case "SPLIT" -> new ServerEvent.SplitAdded(f.nextInt(), f.nextInt(), f.nextDouble());
+                case "RESET" -> new ServerEvent.GroupReset(f.nextInt());
+                case "ARCHIVED" -> new ServerEvent.GroupArchived(f.nextInt(), f.nextInt(), f.nextDouble());
+                case "IMPORTED" -> new ServerEvent.GroupImported(f.nextInt(), f.nextInt());
+                case "SNAPSHOT_BEGIN" -> new ServerEvent.SnapshotBegin();
+                case "SNAPSHOT_END" -> new ServerEvent.SnapshotEnd();
+                case "GROUP_UNCHANGED" -> new ServerEvent.GroupUnchanged(f.nextInt());
+                case "GROUP_VERSION" -> new ServerEvent.GroupVersion(f.nextInt(), f.next());
+                case "SEARCH_BEGIN" -> new ServerEvent.SearchBegin();
+                case "SEARCH_RESULT" -> new ServerEvent.SearchResult(f.nextInt(), f.next(), f.restOr(""));
+                case "SEARCH_END" -> new ServerEvent.SearchEnd();
+                case "ROLLUP_ROW" -> new ServerEvent.RollupRow(f.next(), f.nextDouble(), f.nextInt());
+                case "USER_SUMMARY" -> new ServerEvent.UserSummary(f.nextDouble(), f.nextDouble(), f.nextDouble());
+                case "REPORT_ROW" -> new ServerEvent.ReportRow(f.next(), f.nextDouble(), f.nextInt());
+                case "IMPORT_OK" -> new ServerEvent.ImportResult(f.nextInt(), f.nextInt());
+                case "ERR" -> new ServerEvent.Error(f.next(), f.restOr(""));
+                case "THROTTLED" -> new ServerEvent.Throttled(Long.parseLong(f.next()));
+                default -> op.endsWith("_ERR") || op.endsWith("_FAIL")
+                        ? new ServerEvent.Error(op, f.restOr(""))
+                        : new ServerEvent.Reply(op, f.restOr(""));
+            };
+        } catch (RuntimeException e) {
+            System.err.println("[NetClient] Failed to decode: " + line + " → " + e);
+            return null;
+        }
+    }
+
+    /** snapshot: MEMBER|id|name|gid   broadcast on join: MEMBER|username|gid */
+    private ServerEvent member() {
+        String first = next();
+        String second = next();
+        if (hasNext()) return new ServerEvent.MemberInfo(Integer.parseInt(first), second, nextInt());
+        return new ServerEvent.MemberJoined(first, Integer.parseInt(second));
+    }
+
+    private boolean hasNext() {
+        return pos <= line.length();
+    }
+
+    private String next() {
+        if (pos > line.length()) throw new IllegalArgumentException("missing field");
+        int end = line.indexOf('|', pos);
+        if (end < 0) end = line.length();
+        String s = line.substring(pos, end);
+        pos = end + 1;
+        return s;
+    }
+
+    private int nextInt() {
+        return Integer.parseInt(next());
+    }
+
+    private double nextDouble() {
+        return Double.parseDouble(next());
+    }
+
+    private String restOr(String def) {
+        if (pos > line.length()) return def;
+        String s = line.substring(pos);
+        pos = line.length() + 1;
+        return s;
+    }
+}
@@ -0,0 +1,121 @@
+package com.expensedash.client.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Writes an incoming EXPORT_BEGIN / EXPORT_ROW / EXPORT_END stream straight to a file.
+ *
+ * Runs on the NetClient listener thread, fed only the lines tagged with its own
+ * EXPORT request. Each row is encoded into one reusable
+ * direct buffer and written to the FileChannel whenever it fills up, so memory
+ * use stays constant no matter how large the ledger is.
+ */
+public class LedgerDownload {
+    private static final String ROW = "EXPORT_ROW|";
+
+    private final Path target;
+    private final Consumer<String> onDone;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+    private final CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder();
+    private FileChannel ch;
+    private long rows;
+    private boolean finished;
+
+    /**
+     * @param target file to create or overwrite
+     * @param onDone receives null on success, or an error message
+     */
+    public LedgerDownload(Path target, Consumer<String> onDone) {
+        this.target = target;
+        this.onDone = onDone;
+    }
+
+    /**
+     * @return true if the line belonged to the export stream and was consumed
+     */
+    synchronized boolean accept(String line) {
+        if (finished) return false;
+        try {
+            if (line.startsWith(ROW)) {
+                if (ch == null) open();
+                write(line, ROW.length());
+                rows++;
+                return true;
+            }
+            if (line.startsWith("EXPORT_BEGIN|")) {
+                open();
+                return true;
+            }
+            if (line.startsWith("EXPORT_END|")) {
+                finish(null);
+                return true;
+            }
+            if (line.startsWith("EXPORT_ERR|")) {
+                finish(line.substring("EXPORT_ERR|".length()));
+                return true;
+            }
+        } catch (IOException e) {
+            finish(e.getMessage());
+            return true;
+        }
+        return false;
+    }
+
+    /** Called when the request ends without EXPORT_END; does nothing once finished. */
+    synchronized void abort(String reason) {
+        if (!finished) finish(reason);
+    }
+
+    public Path target() { return target; }
+
+    public long rows() { return rows; }
+
+    private void open() throws IOException {
+        if (ch != null) return;
+        ch = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private void write(String line, int from) throws IOException {
+        CharBuffer in = CharBuffer.wrap(line, from, line.length());
+        while (true) {
+            CoderResult r = utf8.encode(in, buf, true);
+            if (r.isOverflow()) {
+                drain();
+                continue;
+            }
+            break;
+        }
+        utf8.reset();
+        if (!buf.hasRemaining()) drain();
+        buf.put((byte) '\n');
+    }
+
+    private void drain() throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) ch.write(buf);
+        buf.clear();
+    }
+
+    private void finish(String error) {
+        finished = true;
+        try {
+            if (ch != null) {
+                drain();
+                ch.close();
+            }
+        } catch (IOException e) {
+            if (error == null) error = e.getMessage();
+        }
+        if (onDone != null) onDone.accept(error);
+    }
+}
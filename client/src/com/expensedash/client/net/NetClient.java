@@ -2,69 +2,489 @@ package com.expensedash.client.net;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
+/**
+ * Line-based connection to the ExpenseDash server.
+ *
+ * Threads:
+ * - writer: drains the outbound queue and flushes once per batch, so {@link #send}
+ *   never touches the socket and is safe to call from the FX thread
+ * - reader: decodes every line into a {@link ServerEvent} before calling the handler,
+ *   so subscribers never parse protocol text
+ *
+ * {@link #send} is fire-and-forget. {@link #request} tags the command with a request id
+ * ("@id|CMD") and returns a future completed with the reply events once the server
+ * sends "@id|DONE". Any number of requests may be in flight at once. Tagged replies
+ * are still passed to the event handler, so controllers see them exactly like before.
+ *
+ * Resume: LOGIN_OK carries a session token and every broadcast arrives as "^seq|event".
+ * If the connection drops unexpectedly, the reader thread reconnects with exponential
+ * backoff (0.5 s up to 30 s) and sends RESUME|token|lastSeq before anything else, so
+ * the server replays only the missed events. Lines sent meanwhile stay queued.
+ * In-flight requests fail on disconnect because their replies cannot be replayed,
+ * except requests sent with an idempotency key, which are simply sent again.
+ *
+ * Calling {@link #connect} again (e.g. Register, then Login on the same client) first
+ * retires the current connection: its socket is closed, its threads are joined and its
+ * in-flight requests fail, so exactly one writer ever drains the queue.
+ *
+ * Heartbeat: the writer sends "PING" after 30 s with nothing to send, and the reader
+ * answers the server's "PING" with "PONG". A connection that delivers nothing for
+ * 90 s is treated as lost, so a dead server is noticed and the client reconnects.
+ */
 public class NetClient {
-    private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
-    private Consumer<String> messageHandler;
+    private static final long REQUEST_TIMEOUT_SECONDS = 30;
+    private static final int THROTTLE_RETRIES = 3;
+    private static final Object CLOSE = new Object();
+    private static final long RECONNECT_MIN_MILLIS = 500;
+    private static final long RECONNECT_MAX_MILLIS = 30_000;
+    private static final long HEARTBEAT_SECONDS = 30;
+    private static final int READ_TIMEOUT_MILLIS = 90_000;
+
+    private String host;
+    private int port;
+    private volatile Link link;
+    private volatile boolean connected;
+    private volatile boolean closed;
+    private volatile String token;
+    private volatile long lastSeq;
+    private volatile Consumer<ServerEvent> eventHandler;
+    private final BlockingDeque<Object> outbound = new LinkedBlockingDeque<>();
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final Map<Integer, PendingRequest> pending = new ConcurrentHashMap<>();
 
     /**
      * Connects to the given host and port.
      * @param host Server IP (e.g., "127.0.0.1" or LAN IP)
      * @param port Server port (e.g., 5055)
-     * @param onMessage Initial message handler (optional, can be null)
+     * @param onEvent Initial event handler (optional, can be null); called on the reader thread
      */
-    public void connect(String host, int port, Consumer<String> onMessage) throws IOException {
-        socket = new Socket(host, port);
-        out = new PrintWriter(socket.getOutputStream(), true);
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+    public synchronized void connect(String host, int port, Consumer<ServerEvent> onEvent) throws IOException {
+        retire();
+        this.host = host;
+        this.port = port;
+        if (onEvent != null)
+            this.eventHandler = onEvent;
+        open(null);
+    }
 
-        if (onMessage != null)
-            this.messageHandler = onMessage;
+    /** One socket and the two threads serving it. */
+    private static final class Link {
+        final Socket socket;
+        Thread writer, reader;
 
-        Thread listener = new Thread(() -> {
+        Link(Socket socket) {
+            this.socket = socket;
+        }
+    }
+
+    /** Closes the current connection, if any, and waits for its threads to stop. */
+    private void retire() {
+        Link old = link;
+        if (old == null) return;
+        link = null;
+        connected = false;
+        token = null; // a new connection starts a new session
+        try { old.socket.close(); } catch (IOException ignored) {}
+        old.writer.interrupt();
+        failInFlight();
+        for (Thread t : new Thread[] {old.writer, old.reader}) {
+            if (t == Thread.currentThread()) continue;
             try {
-                String line;
-                while ((line = in.readLine()) != null) {
-                    if (messageHandler != null) {
-                        messageHandler.accept(line);
-                    }
+                t.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /** Opens a socket and starts its threads; {@code first} is written before the queue. */
+    private void open(String first) throws IOException {
+        Socket s = new Socket(host, port);
+        s.setTcpNoDelay(true);
+        s.setSoTimeout(READ_TIMEOUT_MILLIS);
+        Writer w = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), 1 << 16);
+        BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+        if (first != null) {
+            w.write(first);
+            w.write('\n');
+            w.flush();
+        }
+        Link l = new Link(s);
+        l.writer = new Thread(() -> writeLoop(s, w), "net-writer");
+        l.writer.setDaemon(true);
+        l.reader = new Thread(() -> readLoop(l, in), "net-reader");
+        l.reader.setDaemon(true);
+        link = l;
+        connected = true;
+        l.writer.start();
+        l.reader.start();
+    }
+
+    private void readLoop(Link l, BufferedReader in) {
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                try {
+                    readLine(line);
+                } catch (RuntimeException e) {
+                    // a malformed line or a failing handler must not end the connection
+                    System.out.println("[NetClient] Skipped line " + line + ": " + e);
                 }
+            }
+        } catch (IOException e) {
+            if (!closed && link == l) System.out.println("[NetClient] Disconnected: " + e.getMessage());
+        }
+        connectionLost(l);
+    }
+
+    private void connectionLost(Link l) {
+        try { l.socket.close(); } catch (IOException ignored) {}
+        l.writer.interrupt();
+        if (link != l) return; // retired by connect(), which cleaned up
+        connected = false;
+        failInFlight();
+        if (closed) return;
+        if (token == null) {
+            close();
+            return;
+        }
+        long delay = RECONNECT_MIN_MILLIS;
+        while (!closed) {
+            try {
+                Thread.sleep(delay);
+                synchronized (this) {
+                    if (link != l || closed) return; // connect() or close() took over
+                    open("RESUME|" + token + "|" + lastSeq);
+                }
+                System.out.println("[NetClient] Reconnected, resuming after seq " + lastSeq);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             } catch (IOException e) {
-                System.out.println("[NetClient] Disconnected: " + e.getMessage());
-            } finally {
-                close();
+                delay = Math.min(delay * 2, RECONNECT_MAX_MILLIS);
+                System.out.println("[NetClient] Reconnect failed (" + e.getMessage() + "), retrying in " + delay + " ms");
             }
+        }
+    }
+
+    /**
+     * Fails in-flight requests, except keyed ones, which are re-sent after RESUME. A failed
+     * request's line is also taken out of the queue if it was not sent yet, so the server
+     * never runs a command its caller was told failed.
+     */
+    private void failInFlight() {
+        IOException lost = new IOException("connection lost");
+        boolean resuming = !closed && token != null;
+        pending.values().removeIf(p -> {
+            outbound.remove(p.line);
+            if (resuming && p.retryLine != null) {
+                p.events.clear();
+                outbound.addFirst(p.retryLine);
+                return false;
+            }
+            p.future.completeExceptionally(lost);
+            return true;
         });
-        listener.setDaemon(true);
-        listener.start();
     }
 
     /**
-     * Allows controllers to change the message handler dynamically
+     * Allows controllers to change the event handler dynamically
      * (e.g., switch from LoginController to DashboardController).
      */
-    public void setMessageHandler(Consumer<String> handler) {
-        this.messageHandler = handler;
+    public void setEventHandler(Consumer<ServerEvent> handler) {
+        this.eventHandler = handler;
+    }
+
+    /**
+     * Sends {@code EXPORT|gid|format} as a tagged request and writes the streamed reply
+     * into {@code d}'s file on the reader thread, bypassing the event handler. Throttling
+     * is retried as for {@link #request(String)}; {@code d} fails if the request does
+     * (still throttled, disconnect) or ends without an export. No timeout: a large
+     * ledger may take longer than one, and a dead connection is noticed anyway.
+     */
+    public void download(int groupId, String format, LedgerDownload d) {
+        submit("EXPORT|" + groupId + "|" + format, null, d, null)
+                .whenComplete((r, e) -> d.abort(e != null ? e.getMessage() : "no export in reply"));
+    }
+
+    /**
+     * Sends {@code cmd} with a fresh request id.
+     * If the server answers THROTTLED, the command is sent again after the delay it
+     * names, up to three times; after that the future fails with {@link ThrottledException}.
+     * @return future completed with the reply events when the server has finished
+     *         the command; fails on disconnect or after 30 seconds
+     */
+    public CompletableFuture<List<ServerEvent>> request(String cmd) {
+        return request(cmd, null);
+    }
+
+    /**
+     * Like {@link #request(String)}, but sends {@code idempotencyKey} as "@id:key|CMD".
+     * Such a request survives a reconnect: it is sent again after RESUME and the server
+     * applies it at most once.
+     */
+    public CompletableFuture<List<ServerEvent>> request(String cmd, String idempotencyKey) {
+        return submit(cmd, idempotencyKey, null, null);
+    }
+
+    /**
+     * Like {@link #request(String, String)}, but also hands each reply event to
+     * {@code onReply} on the reader thread as it arrives, before the event handler sees
+     * it and so before any broadcast the server sends after that reply.
+     */
+    public CompletableFuture<List<ServerEvent>> request(String cmd, String idempotencyKey, Consumer<ServerEvent> onReply) {
+        return submit(cmd, idempotencyKey, null, onReply);
+    }
+
+    private CompletableFuture<List<ServerEvent>> submit(String cmd, String idempotencyKey, LedgerDownload download,
+                                                        Consumer<ServerEvent> onReply) {
+        if (closed || host == null) {
+            return CompletableFuture.failedFuture(new IOException("connection not established"));
+        }
+        int id = nextRequestId.incrementAndGet();
+        String line = idempotencyKey == null ? "@" + id + "|" + cmd : "@" + id + ":" + idempotencyKey + "|" + cmd;
+        PendingRequest p = new PendingRequest(line, idempotencyKey != null, download, onReply);
+        pending.put(id, p);
+        send(line);
+        if (download == null) p.future.orTimeout(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        return p.future.whenComplete((r, e) -> pending.remove(id));
+    }
+
+    /**
+     * Sends {@code header} as a tagged request followed by {@code lines}, written as one
+     * unit so no other command can land in between (e.g. BATCH_BEGIN ... BATCH_END).
+     */
+    public CompletableFuture<List<ServerEvent>> requestBatch(String header, List<String> lines) {
+        return requestBatch(header, lines, null);
+    }
+
+    /** Like {@link #requestBatch(String, List)}, with a reply listener as in {@link #request(String, String, Consumer)}. */
+    public CompletableFuture<List<ServerEvent>> requestBatch(String header, List<String> lines, Consumer<ServerEvent> onReply) {
+        if (lines.isEmpty()) return submit(header, null, null, onReply); // no blank line for an empty body
+        return submit(header + "\n" + String.join("\n", lines), null, null, onReply);
     }
 
-    /** Sends a line to the server. */
+    /** Queues a line for the writer thread. Never blocks; kept queued while reconnecting. */
     public void send(String msg) {
-        if (out != null) {
-            out.println(msg);
+        if (!closed && host != null) {
+            outbound.add(msg);
         } else {
             System.out.println("[NetClient] Attempted to send, but connection not established.");
         }
     }
 
-    /** Closes the connection gracefully. */
+    /**
+     * Queues {@code header}, every line of {@code file} and {@code trailer} as one
+     * uninterrupted upload. The writer thread streams the file, so it is never held in
+     * memory and the caller does not block.
+     * Used for bulk uploads such as IMPORT_BEGIN ... IMPORT_END.
+     */
+    public CompletableFuture<Void> sendFile(String header, Path file, String trailer) {
+        if (closed || host == null) {
+            return CompletableFuture.failedFuture(new IOException("connection not established"));
+        }
+        FileUpload u = new FileUpload(header, file, trailer, new CompletableFuture<>());
+        outbound.add(u);
+        return u.done;
+    }
+
+    /** Host given to {@link #connect}, or null before connecting. */
+    public String host() {
+        return host;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /** Closes the connection gracefully and stops reconnecting. */
     public void close() {
+        closed = true;
+        connected = false;
+        outbound.add(CLOSE);
+        IOException c = new IOException("connection closed");
+        pending.values().forEach(p -> p.future.completeExceptionally(c));
+        pending.clear();
         try {
-            if (socket != null && !socket.isClosed()) socket.close();
-            if (in != null) in.close();
-            if (out != null) out.close();
+            Link l = link;
+            if (l != null && !l.socket.isClosed()) l.socket.close();
         } catch (IOException ignored) {}
     }
+
+    // --- reader thread ---
+
+    private void readLine(String line) {
+        if (line.equals("PING")) {
+            send("PONG");
+            return;
+        }
+        if (line.equals("PONG")) return;
+        if (line.startsWith("^")) {
+            int bar = line.indexOf('|');
+            if (bar < 0) return;
+            lastSeq = Long.parseLong(line, 1, bar, 10);
+            line = line.substring(bar + 1);
+        }
+        PendingRequest p = null;
+        if (line.startsWith("@")) {
+            int bar = line.indexOf('|');
+            if (bar < 0) return;
+            int id = Integer.parseInt(line, 1, bar, 10);
+            line = line.substring(bar + 1);
+            p = pending.get(id);
+            if (line.equals("DONE")) {
+                if (p != null && p.retryAfterMillis > 0 && p.throttled++ < THROTTLE_RETRIES) {
+                    // refused before it ran: send it again once the server says it may
+                    PendingRequest again = p;
+                    again.events.clear();
+                    CompletableFuture.delayedExecutor(again.retryAfterMillis, TimeUnit.MILLISECONDS)
+                            .execute(() -> { if (pending.get(id) == again) send(again.line); });
+                    again.retryAfterMillis = 0;
+                } else if (p != null) {
+                    pending.remove(id);
+                    if (p.retryAfterMillis > 0) p.future.completeExceptionally(new ThrottledException(p.retryAfterMillis));
+                    else p.future.complete(p.events);
+                }
+                return;
+            }
+        }
+        if (p != null && p.download != null && p.download.accept(line)) return;
+        ServerEvent event = EventDecoder.decode(line);
+        if (event == null) return;
+        if (event instanceof ServerEvent.Reply r && r.is("LOGIN_OK") && !r.detail().isEmpty()) {
+            token = r.detail();
+            lastSeq = 0;
+        } else if (event instanceof ServerEvent.Error e && e.code().equals("RESUME_FAIL")) {
+            token = null;
+        }
+        if (event instanceof ServerEvent.Throttled t && p != null) {
+            // handled here (retry or fail the future); only untagged ones reach the handler
+            p.retryAfterMillis = t.retryAfterMillis();
+            return;
+        }
+        if (p != null) {
+            p.events.add(event);
+            if (p.onReply != null) p.onReply.accept(event);
+        }
+        Consumer<ServerEvent> h = eventHandler;
+        if (h != null) h.accept(event);
+    }
+
+    // --- writer thread ---
+
+    private void writeLoop(Socket s, Writer w) {
+        List<Object> batch = new ArrayList<>(64);
+        try {
+            while (true) {
+                Object first = outbound.poll(HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+                batch.add(first != null ? first : "PING");
+                outbound.drainTo(batch, 1023);
+                for (Object o : batch) {
+                    if (o == CLOSE) {
+                        batch.clear();
+                        return;
+                    }
+                    if (o instanceof FileUpload u) {
+                        u.writeTo(w);
+                    } else {
+                        w.write((String) o);
+                        w.write('\n');
+                    }
+                }
+                w.flush();
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // connection replaced or closed; nothing taken yet
+        } catch (IOException e) {
+            System.out.println("[NetClient] Write failed: " + e.getMessage());
+            // Part of this batch may have reached the server, so none of it is written again:
+            // the reader notices the close, and failInFlight re-sends keyed requests (applied at
+            // most once) and fails the rest. Untagged lines and uploads are lost with it.
+            for (Object o : batch) {
+                if (o instanceof FileUpload u) u.done.completeExceptionally(e);
+            }
+            try { s.close(); } catch (IOException ignored) {}
+        } finally {
+            if (closed) {
+                for (Object o : outbound) {
+                    if (o instanceof FileUpload u) u.done.completeExceptionally(new IOException("connection closed"));
+                }
+                outbound.clear();
+            }
+        }
+    }
+
+    private record FileUpload(String header, Path file, String trailer, CompletableFuture<Void> done) {
+        void writeTo(Writer w) throws IOException {
+            try {
+                stream(w);
+            } catch (IOException e) {
+                done.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        private void stream(Writer w) throws IOException {
+            w.write(header);
+            w.write('\n');
+            IOException failure = null;
+            try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    w.write(line);
+                    w.write('\n');
+                }
+            } catch (IOException e) {
+                failure = e; // still close the upload below so the server is not left waiting
+            }
+            w.write(trailer);
+            w.write('\n');
+            if (failure != null) done.completeExceptionally(failure);
+            else done.complete(null);
+        }
+    }
+
+    /** A request the server still refused (THROTTLED) after every retry; it was never applied. */
+    public static final class ThrottledException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ThrottledException(long retryAfterMillis) {
+            super("Server is busy; try again in " + Math.max(1, (retryAfterMillis + 999) / 1000) + " s");
+        }
+    }
+
+    private static final class PendingRequest {
+        final CompletableFuture<List<ServerEvent>> future = new CompletableFuture<>();
+        final List<ServerEvent> events = new ArrayList<>();
+        final String line;
+        final String retryLine; // null unless the request is safe to send twice
+        final LedgerDownload download; // receives the EXPORT_* lines, or null
+        final Consumer<ServerEvent> onReply; // sees each reply event first, or null
+        long retryAfterMillis;  // set by THROTTLED, read at DONE
+        int throttled;
+
+        PendingRequest(String line, boolean idempotent, LedgerDownload download, Consumer<ServerEvent> onReply) {
+            this.line = line;
+            this.retryLine = idempotent ? line : null;
+            this.download = download;
+            this.onReply = onReply;
+        }
+    }
 }
@@ -0,0 +1,56 @@
+package com.expensedash.client.net;
+
+/**
+ * Immutable, already-parsed messages from the server.
+ *
+ * {@link EventDecoder} builds these on the NetClient reader thread, so subscribers
+ * (and the FX thread behind them) never split protocol lines themselves.
+ */
+public sealed interface ServerEvent {
+
+    // --- ledger data (snapshot + live broadcasts) ---
+    record GroupInfo(int id, String name, String category) implements ServerEvent {}
+    record MemberInfo(int id, String name, int groupId) implements ServerEvent {}
+    record MemberJoined(String username, int groupId) implements ServerEvent {}
+    record ExpenseAdded(int id, int groupId, String payer, double amount, String description) implements ServerEvent {}
+    record SplitAdded(int expenseId, int memberId, double amount) implements ServerEvent {}
+    record GroupReset(int groupId) implements ServerEvent {}
+    record GroupImported(int groupId, int count) implements ServerEvent {}
+    /** ARCHIVED reply: expenses settled or aged out of a group, kept only as totals. */
+    record GroupArchived(int groupId, int count, double total) implements ServerEvent {}
+
+    record SnapshotBegin() implements ServerEvent {}
+    record SnapshotEnd() implements ServerEvent {}
+    /** Snapshot entry for a group the client already has at this version. */
+    record GroupUnchanged(int groupId) implements ServerEvent {}
+    /** Sent after a group's snapshot data; echoed back in REQUEST_SNAPSHOT next time. */
+    record GroupVersion(int groupId, String version) implements ServerEvent {}
+
+    // --- search ---
+    record SearchBegin() implements ServerEvent {}
+    record SearchResult(int groupId, String name, String category) implements ServerEvent {}
+    record SearchEnd() implements ServerEvent {}
+
+    // --- reports ---
+    /** ROLLUP_ROW: one payer's (or month's) total and expense count. */
+    record RollupRow(String key, double total, int count) implements ServerEvent {}
+    /** USER_SUMMARY: the user's totals across all of their groups (reply and push). */
+    record UserSummary(double paid, double owed, double receivable) implements ServerEvent {}
+    /** REPORT_ROW: one payer, category, month or group of a REPORT. */
+    record ReportRow(String key, double total, int count) implements ServerEvent {}
+
+    // --- replies ---
+    record ImportResult(int imported, int skipped) implements ServerEvent {}
+
+    /** Success / status replies such as LOGIN_OK, REGISTER_DUP or ADD_GROUP_OK|gid. */
+    record Reply(String code, String detail) implements ServerEvent {
+        public boolean is(String c) { return code.equals(c); }
+        public int detailInt() { return Integer.parseInt(detail.indexOf('|') < 0 ? detail : detail.substring(0, detail.indexOf('|'))); }
+    }
+
+    /** THROTTLED|retryAfterMillis: the command was refused unrun; try again after the delay. */
+    record Throttled(long retryAfterMillis) implements ServerEvent {}
+
+    /** Anything ending in _ERR or _FAIL, plus the generic ERR|op|message. */
+    record Error(String code, String message) implements ServerEvent {}
+}
@@ -0,0 +1,14 @@
+#!/usr/bin/env bash
+# Usage: ./run-bench.sh <BenchClass> [args...]
+#        ./run-bench.sh jmh [JMH options] [benchmark regex]   (e.g. ./run-bench.sh jmh SnapshotBench -p expenses=1000)
+# JMH needs jmh-core, jmh-generator-annprocess, jopt-simple and commons-math3 in lib/.
+set -e
+cd "$(dirname "$0")/benchmarks"
+CP="../lib/*:../server/src:../client/src:./src"
+mkdir -p out
+javac -encoding UTF-8 -d out -cp "$CP" $(find src ../server/src ../client/src/com/expensedash/client/net -name "*.java")
+BENCH="$1"; shift || true
+if [ "$BENCH" = "jmh" ]; then
+  exec java -cp "out:../lib/*:../server/resources" org.openjdk.jmh.Main "$@"
+fi
+java -cp "out:../lib/*:../server/resources" "com.expensedash.bench.${BENCH:-DispatchBench}" "$@"
@@ -0,0 +1,167 @@
+package com.expensedash.server;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import com.expensedash.server.metrics.CountingStreams;
+import com.expensedash.server.metrics.Metrics;
+
+/**
+ * One connected client.
+ *
+ * All output goes through a bounded queue drained by a per-session writer thread,
+ * so broadcasts from group lanes never block on a slow socket and lines from
+ * different threads are never interleaved mid-line. The writer flushes once per
+ * drained batch rather than once per line.
+ */
+class ClientSession {
+    private static final int OUTBOX_CAPACITY = 8192;
+    private static final String CLOSE = new String("<close>");
+    private static final LongAdder BYTES_IN = Metrics.counter("expensedash_bytes_in_total");
+    private static final LongAdder BYTES_OUT = Metrics.counter("expensedash_bytes_out_total");
+
+    final Socket socket;
+    final Database db;
+    final BufferedReader in;
+    volatile String username;
+    /** Resumable state once logged in (see SessionRegistry); null before LOGIN/RESUME. */
+    volatile SessionRegistry.State state;
+    /** "@id|" of the request being handled, or null; prefixed to every reply. */
+    volatile String replyTag;
+    /** Idempotency key from an "@id:key|" header, or null; cleared after each command. */
+    volatile String idempotencyKey;
+    /** Cached versions of an untagged REQUEST_SNAPSHOT waiting for admission, or null. */
+    final AtomicReference<Map<Integer, String>> pendingSnapshot = new AtomicReference<>();
+    /** Set by a handler whose reply ends with a full snapshot; see ServerMain.capped. */
+    boolean snapshotDue;
+    /** This connection's rate limits; set before its thread starts. */
+    RateLimiter.Buckets limits;
+    /** System.nanoTime() of the last line read from the client; see {@link Heartbeat}. */
+    volatile long lastRead = System.nanoTime();
+
+    private final BlockingQueue<String> outbox = new ArrayBlockingQueue<>(OUTBOX_CAPACITY);
+    private final Writer out;
+    private volatile boolean closed;
+    // When the writer last took or flushed output; stale while it is stuck in a write
+    private volatile long lastWrite = System.nanoTime();
+
+    /** @param capture records this session's input, or null */
+    ClientSession(Socket socket, Database db, TrafficCapture capture) throws IOException {
+        this.socket = socket;
+        this.db = db;
+        Reader reader = new InputStreamReader(CountingStreams.in(socket.getInputStream(), BYTES_IN), StandardCharsets.UTF_8);
+        this.in = capture != null ? capture.open(reader) : new BufferedReader(reader);
+        this.out = new BufferedWriter(new OutputStreamWriter(
+                CountingStreams.out(socket.getOutputStream(), BYTES_OUT), StandardCharsets.UTF_8), 1 << 16);
+
+        Thread writer = new Thread(this::writeLoop, "session-writer-" + socket.getPort());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a reply from this session's own handler, tagged with the current request id
+     * if there is one. Blocks while the outbox is full, which throttles large streams
+     * (snapshot, export) to the client's read speed.
+     */
+    void send(String line) {
+        String tag = replyTag;
+        sendUntagged(tag == null ? line : tag.concat(line));
+    }
+
+    /** Like {@link #send}, but never tagged: for replies produced off the session thread. */
+    void sendUntagged(String line) {
+        try {
+            // not put(): after abort() nothing drains the outbox
+            while (!closed && !outbox.offer(line, 1, TimeUnit.SECONDS)) {
+                // still full
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Like {@link #send}, but never blocks: for a reply queued from a group lane while the
+     * session thread waits. A full outbox disconnects the client, as for {@link #offer}.
+     */
+    void reply(String line) {
+        String tag = replyTag;
+        offer(tag == null ? line : tag.concat(line));
+    }
+
+    /**
+     * Queues a broadcast (never tagged) without blocking. A client that has fallen a full outbox
+     * behind is disconnected rather than allowed to stall the sender.
+     */
+    void offer(String line) {
+        if (closed) return;
+        if (!outbox.offer(line)) {
+            System.out.println("[Server] Dropping slow client: " + socket.getInetAddress());
+            close();
+        }
+    }
+
+    /** Lets queued lines drain, then closes the socket (immediately if the outbox is full). */
+    void close() {
+        if (in instanceof TrafficCapture.Recording r) r.end();
+        if (closed) return;
+        closed = true;
+        if (!outbox.offer(CLOSE)) closeSocket();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /** True if output is queued but the writer has not moved for {@code nanos}: the peer stopped reading. */
+    boolean stalled(long now, long nanos) {
+        return !outbox.isEmpty() && now - lastWrite > nanos;
+    }
+
+    /** Closes the socket at once, dropping queued output; unblocks both session threads. */
+    void abort() {
+        closed = true;
+        closeSocket();
+    }
+
+    private void closeSocket() {
+        try { socket.close(); } catch (IOException ignored) {}
+    }
+
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>(256);
+        try {
+            while (true) {
+                batch.add(outbox.take());
+                lastWrite = System.nanoTime();
+                outbox.drainTo(batch, 1023);
+                for (String line : batch) {
+                    if (line == CLOSE) {
+                        out.flush();
+                        closeSocket();
+                        return;
+                    }
+                    out.write(line);
+                    out.write('\n');
+                }
+                out.flush();
+                lastWrite = System.nanoTime();
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            closed = true;
+            closeSocket();
+        }
+    }
+}
@@ -2,22 +2,39 @@ package com.expensedash.server;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import com.expensedash.server.metrics.Histogram;
+import com.expensedash.server.metrics.Metrics;
+import com.expensedash.server.metrics.SlowQueryLog;
+import com.expensedash.server.metrics.TimedConnection;
 import com.expensedash.server.model.*;
 
 public class Database {
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
     private final String dbPath;
+    private final Map<String, Histogram> timers = new ConcurrentHashMap<>();
 
     public Database(String path) {
         this.dbPath = path;
     }
 
-    private Connection connect() throws SQLException {
+    Connection connect() throws SQLException {
         String url = "jdbc:sqlite:" + dbPath;
-        return DriverManager.getConnection(url);
+        Properties props = new Properties();
+        // wait for background maintenance batches instead of failing with SQLITE_BUSY
+        props.setProperty("busy_timeout", "5000");
+        Connection c = DriverManager.getConnection(url, props);
+        // Every method opens its own connection, so its lifetime is the method's latency
+        String method = WALKER.walk(s -> s.skip(1).findFirst().map(StackWalker.StackFrame::getMethodName).orElse("unknown"));
+        return TimedConnection.wrap(c, timers.computeIfAbsent(method, m -> Metrics.timer("expensedash_db_seconds", "method", m)));
     }
 
     public void init() throws SQLException {
         try (Connection c = connect(); Statement st = c.createStatement()) {
+            // Takes effect only on a new, empty file; see compact() for existing ones
+            st.execute("PRAGMA auto_vacuum=INCREMENTAL");
             st.execute("CREATE TABLE IF NOT EXISTS groups(" +
                     "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
                     "name TEXT NOT NULL UNIQUE, " +
@@ -54,9 +71,43 @@ public class Database {
                     "group_id INTEGER NOT NULL, " +
                     "status TEXT CHECK(status IN ('PENDING','APPROVED','REJECTED')) DEFAULT 'PENDING')");
 
+            // Settled / expired expenses are moved here by settleGroup() and MaintenanceScheduler
+            st.execute("CREATE TABLE IF NOT EXISTS expenses_archive(" +
+                    "id INTEGER PRIMARY KEY, " +
+                    "group_id INTEGER NOT NULL, " +
+                    "payer TEXT NOT NULL, " +
+                    "amount REAL NOT NULL, " +
+                    "description TEXT, " +
+                    "created_at TEXT, " +
+                    "archived_at TEXT DEFAULT CURRENT_TIMESTAMP)");
+
+            st.execute("CREATE TABLE IF NOT EXISTS splits_archive(" +
+                    "expense_id INTEGER NOT NULL, " +
+                    "member_id INTEGER NOT NULL, " +
+                    "amount REAL NOT NULL, " +
+                    "PRIMARY KEY(expense_id, member_id))");
+
+            st.execute("CREATE TABLE IF NOT EXISTS group_rollups(" +
+                    "group_id INTEGER PRIMARY KEY, " +
+                    "archived_count INTEGER NOT NULL DEFAULT 0, " +
+                    "archived_total REAL NOT NULL DEFAULT 0, " +
+                    "last_archived_at TEXT)");
+
+            // Client-chosen keys of applied mutations, so a retried command is not applied twice
+            st.execute("CREATE TABLE IF NOT EXISTS idempotency_keys(" +
+                    "key TEXT PRIMARY KEY," +
+                    "expense_id INTEGER NOT NULL," +
+                    "created_at TEXT DEFAULT CURRENT_TIMESTAMP)");
+
             st.execute("CREATE UNIQUE INDEX IF NOT EXISTS idx_groups_name ON groups(name)");
             st.execute("CREATE INDEX IF NOT EXISTS idx_members_group ON members(group_id)");
+            st.execute("CREATE INDEX IF NOT EXISTS idx_expenses_archive_group ON expenses_archive(group_id)");
+
+            // WAL lets snapshot readers run while a maintenance batch is writing
+            st.execute("PRAGMA journal_mode=WAL");
         }
+        // Tables above are the baseline; later schema changes are versioned migrations
+        SchemaMigrations.apply(this);
         seed();
     }
 
@@ -97,6 +148,20 @@ public class Database {
         return list;
     }
 
+    /** Groups created after {@code afterId}, in id order. */
+    public List<Group> getGroupsAfter(int afterId) throws SQLException {
+        List<Group> list = new ArrayList<>();
+        try (Connection c = connect();
+             PreparedStatement ps = c.prepareStatement("SELECT id,name,category FROM groups WHERE id>? ORDER BY id")) {
+            ps.setInt(1, afterId);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                list.add(new Group(rs.getInt(1), rs.getString(2), rs.getString(3)));
+            }
+        }
+        return list;
+    }
+
     public int addGroup(String name, String category, String creator) throws SQLException {
         try (Connection c = connect();
              PreparedStatement ps = c.prepareStatement(
@@ -148,8 +213,7 @@ public class Database {
         List<Group> list = new ArrayList<>();
         String q = (query == null || query.isBlank()) ? "%" : "%" + query.toLowerCase() + "%";
         try (Connection c = connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "SELECT id,name,category FROM groups WHERE LOWER(name) LIKE ? ORDER BY name ASC")) {
+             PreparedStatement ps = c.prepareStatement(HOT_QUERIES.get("searchGroups"))) {
             ps.setString(1, q);
             ResultSet rs = ps.executeQuery();
             while (rs.next()) {
@@ -255,8 +319,7 @@ public class Database {
 
     public boolean isMemberInGroup(String username, int groupId) throws SQLException {
         try (Connection c = connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "SELECT 1 FROM members WHERE name=? AND group_id=? LIMIT 1")) {
+             PreparedStatement ps = c.prepareStatement(HOT_QUERIES.get("isMemberInGroup"))) {
             ps.setString(1, username);
             ps.setInt(2, groupId);
             ResultSet rs = ps.executeQuery();
@@ -277,8 +340,7 @@ public class Database {
     public List<Member> getMembersForGroup(int gid) throws SQLException {
         List<Member> list = new ArrayList<>();
         try (Connection c = connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "SELECT id,name,group_id FROM members WHERE group_id=?")) {
+             PreparedStatement ps = c.prepareStatement(HOT_QUERIES.get("getMembersForGroup"))) {
             ps.setInt(1, gid);
             ResultSet rs = ps.executeQuery();
             while (rs.next()) {
@@ -306,8 +368,7 @@ public class Database {
 
     public boolean validateUser(String username, String passwordHash) throws SQLException {
         try (Connection c = connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "SELECT COUNT(*) FROM users WHERE username=? AND password_hash=?")) {
+             PreparedStatement ps = c.prepareStatement(HOT_QUERIES.get("validateUser"))) {
             ps.setString(1, username);
             ps.setString(2, passwordHash);
             ResultSet rs = ps.executeQuery();
@@ -328,8 +389,7 @@ public class Database {
     public List<Integer> getGroupsForUser(String username) throws SQLException {
         List<Integer> list = new ArrayList<>();
         try (Connection c = connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "SELECT DISTINCT group_id FROM members WHERE name=?")) {
+             PreparedStatement ps = c.prepareStatement(HOT_QUERIES.get("getGroupsForUser"))) {
             ps.setString(1, username);
             ResultSet rs = ps.executeQuery();
             while (rs.next()) list.add(rs.getInt(1));
@@ -337,6 +397,21 @@ public class Database {
         return list;
     }
 
+    /**
+     * Opaque token that changes whenever a group's members or open expenses change.
+     * Members and expenses are only ever added, or moved to the archive by a settle,
+     * so ids and counts are enough; no version column needs to be maintained.
+     */
+    public String groupVersion(int gid) throws SQLException {
+        try (Connection c = connect();
+             PreparedStatement ps = c.prepareStatement(HOT_QUERIES.get("groupVersion"))) {
+            for (int i = 1; i <= 4; i++) ps.setInt(i, gid);
+            ResultSet rs = ps.executeQuery();
+            rs.next();
+            return rs.getLong(1) + "." + rs.getLong(2) + "." + rs.getLong(3) + "." + rs.getLong(4);
+        }
+    }
+
     // --------------------------------------------------------------------
     // EXPENSES + SPLITS
     // --------------------------------------------------------------------
@@ -355,11 +430,206 @@ public class Database {
         }
     }
 
+    /** Runs one chunk's transaction for {@link #importExpenses}, e.g. once the server admits it. */
+    public interface ChunkGate {
+        void admit(Callable<Void> transaction) throws Exception;
+    }
+
+    /** {@link #importExpenses(int, Iterator, int, ChunkGate)} with every chunk run straight away. */
+    public int importExpenses(int groupId, Iterator<Expense> rows, int chunkSize) throws SQLException {
+        try {
+            return importExpenses(groupId, rows, chunkSize, Callable::call);
+        } catch (SQLException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException(e);
+        }
+    }
+
+    /**
+     * Bulk-inserts expenses for one group, splitting each equally across the group's
+     * current members. Rows are pulled lazily from {@code rows} and written in JDBC
+     * batches, committing every {@code chunkSize} expenses so the write lock is never
+     * held for the whole import. Each chunk is read from {@code rows} first and only
+     * then handed to {@code gate}, so a slow row source is never waited on inside it.
+     * @return number of expenses inserted
+     */
+    public int importExpenses(int groupId, Iterator<Expense> rows, int chunkSize, ChunkGate gate) throws Exception {
+        List<Member> members = getMembersForGroup(groupId);
+        int total = 0;
+        List<Expense> chunk = new ArrayList<>(chunkSize);
+
+        try (Connection c = connect();
+             PreparedStatement ins = c.prepareStatement(
+                     "INSERT INTO expenses(id,group_id,payer,amount,description,created_at) " +
+                             "VALUES (?,?,?,?,?,COALESCE(?,CURRENT_TIMESTAMP))");
+             PreparedStatement split = c.prepareStatement(
+                     "INSERT INTO splits(expense_id,member_id,amount) VALUES (?,?,?)")) {
+            c.setAutoCommit(false);
+            while (rows.hasNext()) {
+                chunk.clear();
+                while (chunk.size() < chunkSize && rows.hasNext()) chunk.add(rows.next());
+                if (chunk.isEmpty()) break;
+                gate.admit(() -> {
+                    insertChunk(c, ins, split, groupId, chunk, members);
+                    return null;
+                });
+                total += chunk.size();
+            }
+        }
+        return total;
+    }
+
+    // One import chunk in its own transaction, rolled back if any row fails
+    private void insertChunk(Connection c, PreparedStatement ins, PreparedStatement split, int groupId,
+                             List<Expense> chunk, List<Member> members) throws SQLException {
+        int n = members.isEmpty() ? 1 : members.size();
+        try {
+            int id = reserveExpenseIds(c, chunk.size());
+            for (Expense e : chunk) {
+                ins.setInt(1, id);
+                ins.setInt(2, groupId);
+                ins.setString(3, e.payer);
+                ins.setDouble(4, e.amount);
+                ins.setString(5, e.desc);
+                ins.setString(6, e.createdAt);
+                ins.addBatch();
+
+                double per = Math.round((e.amount / n) * 100.0) / 100.0;
+                for (Member m : members) {
+                    split.setInt(1, id);
+                    split.setInt(2, m.id);
+                    split.setDouble(3, per);
+                    split.addBatch();
+                }
+                id++;
+            }
+            ins.executeBatch();
+            split.executeBatch();
+            c.commit();
+        } catch (SQLException ex) {
+            c.rollback();
+            throw ex;
+        }
+    }
+
+    /**
+     * Claims {@code count} consecutive AUTOINCREMENT ids for expenses. Bumping
+     * sqlite_sequence is a write, so the caller's transaction holds the lock from here on.
+     * @return first reserved id
+     */
+    private int reserveExpenseIds(Connection c, int count) throws SQLException {
+        try (PreparedStatement up = c.prepareStatement(
+                "UPDATE sqlite_sequence SET seq = seq + ? WHERE name='expenses'")) {
+            up.setInt(1, count);
+            if (up.executeUpdate() == 0) {
+                try (PreparedStatement ins = c.prepareStatement(
+                        "INSERT INTO sqlite_sequence(name,seq) VALUES ('expenses',?)")) {
+                    ins.setInt(1, count);
+                    ins.executeUpdate();
+                }
+            }
+        }
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT seq FROM sqlite_sequence WHERE name='expenses'")) {
+            rs.next();
+            return rs.getInt(1) - count + 1;
+        }
+    }
+
+    /** Result of {@link #addExpenseOnce}; {@code duplicate} means the key had already been applied. */
+    public record AddedExpense(int expenseId, boolean duplicate) {}
+
+    /** One queued ADD_EXPENSE for {@link #addExpensesOnce}; {@code key} may be null. */
+    public record NewExpense(String key, int groupId, String payer, double amount, String desc) {}
+
+    /**
+     * Inserts an expense and its equal splits across the group's members in one
+     * transaction. With a non-null {@code key}, a second call with the same key
+     * changes nothing and returns the original expense id.
+     */
+    public AddedExpense addExpenseOnce(int groupId, String payer, double amount, String desc, String key) throws SQLException {
+        return addExpensesOnce(List.of(new NewExpense(key, groupId, payer, amount, desc))).get(0);
+    }
+
+    /**
+     * Applies a whole batch of expenses in a single transaction: either every item is
+     * applied (or recognised as a duplicate by its key) or none is.
+     * @return one result per item, in order
+     */
+    public List<AddedExpense> addExpensesOnce(List<NewExpense> items) throws SQLException {
+        List<AddedExpense> results = new ArrayList<>(items.size());
+        try (Connection c = connect()) {
+            c.setAutoCommit(false);
+            try (PreparedStatement findKey = c.prepareStatement(HOT_QUERIES.get("findIdempotencyKey"));
+                 PreparedStatement insExpense = c.prepareStatement(
+                         "INSERT INTO expenses(group_id,payer,amount,description) VALUES (?,?,?,?)",
+                         Statement.RETURN_GENERATED_KEYS);
+                 PreparedStatement members = c.prepareStatement("SELECT id FROM members WHERE group_id=?");
+                 PreparedStatement insSplit = c.prepareStatement(
+                         "INSERT INTO splits(expense_id,member_id,amount) VALUES (?,?,?)");
+                 PreparedStatement insKey = c.prepareStatement(
+                         "INSERT INTO idempotency_keys(key,expense_id) VALUES (?,?)")) {
+                for (NewExpense x : items) {
+                    if (x.key() != null) {
+                        findKey.setString(1, x.key());
+                        ResultSet rs = findKey.executeQuery();
+                        if (rs.next()) {
+                            results.add(new AddedExpense(rs.getInt(1), true));
+                            continue;
+                        }
+                    }
+                    insExpense.setInt(1, x.groupId());
+                    insExpense.setString(2, x.payer());
+                    insExpense.setDouble(3, x.amount());
+                    insExpense.setString(4, x.desc());
+                    insExpense.executeUpdate();
+                    ResultSet keys = insExpense.getGeneratedKeys();
+                    int expId = keys.next() ? keys.getInt(1) : -1;
+
+                    List<Integer> memberIds = new ArrayList<>();
+                    members.setInt(1, x.groupId());
+                    ResultSet rs = members.executeQuery();
+                    while (rs.next()) memberIds.add(rs.getInt(1));
+                    double per = Math.round((x.amount() / Math.max(1, memberIds.size())) * 100.0) / 100.0;
+                    for (int mid : memberIds) {
+                        insSplit.setInt(1, expId);
+                        insSplit.setInt(2, mid);
+                        insSplit.setDouble(3, per);
+                        insSplit.addBatch();
+                    }
+                    insSplit.executeBatch();
+
+                    if (x.key() != null) {
+                        insKey.setString(1, x.key());
+                        insKey.setInt(2, expId);
+                        insKey.executeUpdate();
+                    }
+                    results.add(new AddedExpense(expId, false));
+                }
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            }
+        }
+        return results;
+    }
+
+    /** Forgets idempotency keys older than {@code hours}. @return keys removed */
+    public int purgeIdempotencyKeys(int hours) throws SQLException {
+        try (Connection c = connect();
+             PreparedStatement ps = c.prepareStatement(
+                     "DELETE FROM idempotency_keys WHERE created_at < datetime('now', ?)")) {
+            ps.setString(1, "-" + hours + " hours");
+            return ps.executeUpdate();
+        }
+    }
+
     public List<Expense> getExpensesForGroup(int gid) throws SQLException {
         List<Expense> list = new ArrayList<>();
         try (Connection c = connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "SELECT id,group_id,payer,amount,description FROM expenses WHERE group_id=?")) {
+             PreparedStatement ps = c.prepareStatement(HOT_QUERIES.get("getExpensesForGroup"))) {
             ps.setInt(1, gid);
             ResultSet rs = ps.executeQuery();
             while (rs.next()) {
@@ -375,6 +645,146 @@ public class Database {
         return list;
     }
 
+    /** Receives one ledger row at a time from {@link #exportExpenses}. */
+    public interface LedgerRowSink {
+        void row(int id, String createdAt, String payer, double amount, String desc, boolean settled) throws Exception;
+    }
+
+    /**
+     * Walks a group's full ledger (settled history first, then open expenses) with a
+     * forward-only cursor, handing each row to {@code sink} as it is read.
+     * @return number of rows streamed
+     */
+    public int exportExpenses(int gid, LedgerRowSink sink) throws Exception {
+        int n = 0;
+        try (Connection c = connect();
+             PreparedStatement ps = c.prepareStatement(
+                     "SELECT id,created_at,payer,amount,description,1 FROM expenses_archive WHERE group_id=? " +
+                             "UNION ALL " +
+                             "SELECT id,created_at,payer,amount,description,0 FROM expenses WHERE group_id=?",
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(500);
+            ps.setInt(1, gid);
+            ps.setInt(2, gid);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    sink.row(rs.getInt(1), rs.getString(2), rs.getString(3),
+                            rs.getDouble(4), rs.getString(5), rs.getInt(6) == 1);
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    private static final String RANGE_SQL =
+            "SELECT id,created_at,payer,amount,description,1 FROM expenses_archive " +
+                    "WHERE group_id=? AND created_at>=? AND created_at<? " +
+                    "UNION ALL " +
+                    "SELECT id,created_at,payer,amount,description,0 FROM expenses " +
+                    "WHERE group_id=? AND created_at>=? AND created_at<? " +
+                    "ORDER BY 2, 1";
+
+    /**
+     * Streams a group's open and settled expenses with {@code from <= created_at < to},
+     * oldest first. Bounds compare as text, so "2025-03" to "2025-04" is all of March.
+     * @return number of rows streamed
+     */
+    public int expensesInRange(int gid, String from, String to, LedgerRowSink sink) throws Exception {
+        int n = 0;
+        try (Connection c = connect();
+             PreparedStatement ps = c.prepareStatement(RANGE_SQL)) {
+            for (int i = 0; i < 2; i++) {
+                ps.setInt(3 * i + 1, gid);
+                ps.setString(3 * i + 2, from);
+                ps.setString(3 * i + 3, to);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    sink.row(rs.getInt(1), rs.getString(2), rs.getString(3),
+                            rs.getDouble(4), rs.getString(5), rs.getInt(6) == 1);
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    /** One line of a monthly rollup: a payer or a month ("2025-03"), with its total and expense count. */
+    public record RollupRow(String key, double total, int count) {}
+
+    /**
+     * Spending of a group from the expense_rollups table (kept current on insert,
+     * never summed from expenses).
+     * @param monthPrefix "2025-03" for one month, "2025" for a year, "" for all time
+     * @param byPayer     one row per payer (largest first) instead of one per month (in order)
+     */
+    public List<RollupRow> rollup(int gid, String monthPrefix, boolean byPayer) throws SQLException {
+        List<RollupRow> rows = new ArrayList<>();
+        try (Connection c = connect();
+             PreparedStatement ps = c.prepareStatement(HOT_QUERIES.get(byPayer ? "rollupByPayer" : "rollupByMonth"))) {
+            ps.setInt(1, gid);
+            ps.setString(2, monthPrefix + "%");
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) rows.add(new RollupRow(rs.getString(1), rs.getDouble(2), rs.getInt(3)));
+        }
+        return rows;
+    }
+
+    /** Receives expense rows for the report engine's in-memory copy. */
+    public interface ReportRowSink {
+        void row(int id, int groupId, String payer, double amount, String createdAt);
+    }
+
+    /**
+     * Streams open and archived expenses with id &gt; {@code afterId}, in no particular order.
+     * Expense ids are AUTOINCREMENT, writers commit one at a time and archiving keeps ids,
+     * so remembering the highest id seen picks up exactly the rows added since.
+     * @return highest id streamed, or {@code afterId} if there was none
+     */
+    public int expensesAfter(int afterId, ReportRowSink sink) throws SQLException {
+        int max = afterId;
+        try (Connection c = connect();
+             PreparedStatement ps = c.prepareStatement(
+                     "SELECT id,group_id,payer,amount,created_at FROM expenses WHERE id>? " +
+                             "UNION ALL " +
+                             "SELECT id,group_id,payer,amount,created_at FROM expenses_archive WHERE id>?")) {
+            ps.setInt(1, afterId);
+            ps.setInt(2, afterId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int id = rs.getInt(1);
+                    sink.row(id, rs.getInt(2), rs.getString(3), rs.getDouble(4), rs.getString(5));
+                    if (id > max) max = id;
+                }
+            }
+        }
+        return max;
+    }
+
+    /** A user's position in one group over its open expenses, in cents, from user_balances. */
+    public record GroupBalance(int groupId, long paidCents, long owedCents, long receivableCents) {}
+
+    /**
+     * The user's balance in every group they belong to, zero where they have no open
+     * expenses. Reads one user_balances row per group; expenses are never summed here.
+     */
+    public List<GroupBalance> userBalances(String username) throws SQLException {
+        List<GroupBalance> list = new ArrayList<>();
+        try (Connection c = connect();
+             PreparedStatement ps = c.prepareStatement(USER_BALANCES_SQL)) {
+            ps.setString(1, username);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) list.add(new GroupBalance(rs.getInt(1), rs.getLong(2), rs.getLong(3), rs.getLong(4)));
+        }
+        return list;
+    }
+
+    private static final String USER_BALANCES_SQL =
+            "SELECT m.group_id, COALESCE(b.paid_cents,0), COALESCE(b.owed_cents,0), COALESCE(b.receivable_cents,0) " +
+                    "FROM members m LEFT JOIN user_balances b ON b.username=m.name AND b.group_id=m.group_id " +
+                    "WHERE m.name=? ORDER BY m.group_id";
+
     public void addSplit(int expenseId, int memberId, double amount) throws SQLException {
         try (Connection c = connect();
              PreparedStatement ps = c.prepareStatement(
@@ -389,8 +799,7 @@ public class Database {
     public List<Split> getSplitsForExpense(int eid) throws SQLException {
         List<Split> list = new ArrayList<>();
         try (Connection c = connect();
-             PreparedStatement ps = c.prepareStatement(
-                     "SELECT expense_id,member_id,amount FROM splits WHERE expense_id=?")) {
+             PreparedStatement ps = c.prepareStatement(HOT_QUERIES.get("getSplitsForExpense"))) {
             ps.setInt(1, eid);
             ResultSet rs = ps.executeQuery();
             while (rs.next()) {
@@ -403,16 +812,168 @@ public class Database {
     public void settleGroup(int groupId) throws SQLException {
         try (Connection c = connect()) {
             c.setAutoCommit(false);
-            try (PreparedStatement ps1 = c.prepareStatement(
-                    "DELETE FROM splits WHERE expense_id IN (SELECT id FROM expenses WHERE group_id=?)");
-                 PreparedStatement ps2 = c.prepareStatement(
-                         "DELETE FROM expenses WHERE group_id=?")) {
-                ps1.setInt(1, groupId);
-                ps1.executeUpdate();
-                ps2.setInt(1, groupId);
-                ps2.executeUpdate();
+            prepareArchiveBatch(c);
+            try (PreparedStatement ps = c.prepareStatement(
+                    "INSERT INTO archive_batch(id) SELECT id FROM expenses WHERE group_id=?")) {
+                ps.setInt(1, groupId);
+                ps.executeUpdate();
+                moveArchiveBatch(c);
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
             }
-            c.commit();
+        }
+    }
+
+    // --------------------------------------------------------------------
+    // ARCHIVE + MAINTENANCE
+    // --------------------------------------------------------------------
+
+    /**
+     * Moves at most {@code limit} expenses created before {@code now - retentionDays}
+     * (and their splits) into the archive tables in a single short transaction.
+     * @return number of expenses archived; 0 once nothing is left to move
+     */
+    public int archiveExpensesOlderThan(int retentionDays, int limit) throws SQLException {
+        try (Connection c = connect()) {
+            c.setAutoCommit(false);
+            prepareArchiveBatch(c);
+            try (PreparedStatement ps = c.prepareStatement(
+                    "INSERT INTO archive_batch(id) SELECT id FROM expenses " +
+                            "WHERE created_at < datetime('now', ?) ORDER BY id LIMIT ?")) {
+                ps.setString(1, "-" + retentionDays + " days");
+                ps.setInt(2, limit);
+                int moved = ps.executeUpdate();
+                if (moved > 0) moveArchiveBatch(c);
+                c.commit();
+                return moved;
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private void prepareArchiveBatch(Connection c) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            st.execute("CREATE TEMP TABLE IF NOT EXISTS archive_batch(id INTEGER PRIMARY KEY)");
+            st.execute("DELETE FROM archive_batch");
+        }
+    }
+
+    /** Rolls up, copies and deletes every expense listed in temp.archive_batch. */
+    private void moveArchiveBatch(Connection c) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            st.executeUpdate("INSERT INTO group_rollups(group_id, archived_count, archived_total, last_archived_at) " +
+                    "SELECT group_id, COUNT(*), SUM(amount), CURRENT_TIMESTAMP FROM expenses " +
+                    "WHERE id IN (SELECT id FROM archive_batch) GROUP BY group_id " +
+                    "ON CONFLICT(group_id) DO UPDATE SET " +
+                    "archived_count = archived_count + excluded.archived_count, " +
+                    "archived_total = archived_total + excluded.archived_total, " +
+                    "last_archived_at = excluded.last_archived_at");
+            st.executeUpdate("INSERT OR REPLACE INTO expenses_archive(id,group_id,payer,amount,description,created_at) " +
+                    "SELECT id,group_id,payer,amount,description,created_at FROM expenses " +
+                    "WHERE id IN (SELECT id FROM archive_batch)");
+            st.executeUpdate("INSERT OR REPLACE INTO splits_archive(expense_id,member_id,amount) " +
+                    "SELECT expense_id,member_id,amount FROM splits " +
+                    "WHERE expense_id IN (SELECT id FROM archive_batch)");
+            st.executeUpdate("DELETE FROM splits WHERE expense_id IN (SELECT id FROM archive_batch)");
+            st.executeUpdate("DELETE FROM expenses WHERE id IN (SELECT id FROM archive_batch)");
+        }
+    }
+
+    /**
+     * Releases at most {@code maxPages} free pages back to the OS. That needs incremental
+     * auto-vacuum, which databases created by {@link #init} have. An older file is switched
+     * over only if {@code convert} is set: that takes a full VACUUM, which locks the whole
+     * file for as long as it takes to rewrite it.
+     * @return false if the file is not in incremental mode and was left alone
+     */
+    public boolean compact(int maxPages, boolean convert) throws SQLException {
+        try (Connection c = connect(); Statement st = c.createStatement()) {
+            int mode;
+            try (ResultSet rs = st.executeQuery("PRAGMA auto_vacuum")) {
+                mode = rs.next() ? rs.getInt(1) : 0;
+            }
+            if (mode != 2) {
+                if (!convert) return false;
+                st.execute("PRAGMA auto_vacuum=INCREMENTAL");
+                st.execute("VACUUM");
+            }
+            st.execute("PRAGMA incremental_vacuum(" + maxPages + ")");
+            return true;
+        }
+    }
+
+    /** Expenses archived out of a group so far; see {@link #archiveExpensesOlderThan}. */
+    public record ArchivedTotals(int count, double total, String lastArchivedAt) {}
+
+    public ArchivedTotals archivedTotals(int groupId) throws SQLException {
+        try (Connection c = connect();
+             PreparedStatement ps = c.prepareStatement(HOT_QUERIES.get("archivedTotals"))) {
+            ps.setInt(1, groupId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return new ArchivedTotals(0, 0, null);
+                return new ArchivedTotals(rs.getInt(1), rs.getDouble(2), rs.getString(3));
+            }
+        }
+    }
+
+    /**
+     * Queries on the login, snapshot and broadcast paths, checked by {@link #checkQueryPlans}.
+     * Each method named here prepares its statement from this map, so the plans checked are
+     * the plans run.
+     */
+    private static final Map<String, String> HOT_QUERIES = Map.ofEntries(
+            Map.entry("validateUser", "SELECT COUNT(*) FROM users WHERE username=? AND password_hash=?"),
+            Map.entry("getGroupsForUser", "SELECT DISTINCT group_id FROM members WHERE name=?"),
+            Map.entry("isMemberInGroup", "SELECT 1 FROM members WHERE name=? AND group_id=? LIMIT 1"),
+            Map.entry("getMembersForGroup", "SELECT id,name,group_id FROM members WHERE group_id=?"),
+            Map.entry("groupVersion", "SELECT (SELECT COALESCE(MAX(id),0) FROM members WHERE group_id=?)," +
+                    " (SELECT COALESCE(MAX(id),0) FROM expenses WHERE group_id=?)," +
+                    " (SELECT COUNT(*) FROM expenses WHERE group_id=?)," +
+                    " (SELECT COALESCE(MAX(archived_count),0) FROM group_rollups WHERE group_id=?)"),
+            Map.entry("getExpensesForGroup", "SELECT id,group_id,payer,amount,description FROM expenses WHERE group_id=?"),
+            Map.entry("getSplitsForExpense", "SELECT expense_id,member_id,amount FROM splits WHERE expense_id=?"),
+            Map.entry("findIdempotencyKey", "SELECT expense_id FROM idempotency_keys WHERE key=?"),
+            Map.entry("expensesInRange", RANGE_SQL),
+            Map.entry("rollupByPayer", "SELECT payer, SUM(total), SUM(count) FROM expense_rollups " +
+                    "WHERE group_id=? AND month LIKE ? GROUP BY payer ORDER BY 2 DESC"),
+            Map.entry("rollupByMonth", "SELECT month, SUM(total), SUM(count) FROM expense_rollups " +
+                    "WHERE group_id=? AND month LIKE ? GROUP BY month ORDER BY 1"),
+            Map.entry("userBalances", USER_BALANCES_SQL),
+            // a substring match cannot seek, so this one is expected to report a scan of groups
+            Map.entry("searchGroups", "SELECT id,name,category FROM groups WHERE LOWER(name) LIKE ? ORDER BY name ASC"),
+            Map.entry("archivedTotals", "SELECT archived_count, archived_total, last_archived_at FROM group_rollups WHERE group_id=?"));
+
+    /**
+     * Startup self-check: runs EXPLAIN QUERY PLAN on every hot query and warns about
+     * full scans, which only hurt once a table has grown.
+     * @return number of full scans found
+     */
+    public int checkQueryPlans() throws SQLException {
+        int scans = 0;
+        try (Connection c = connect()) {
+            for (var q : new TreeMap<>(HOT_QUERIES).entrySet()) {
+                for (String step : SlowQueryLog.explain(c, q.getValue(), Map.of())) {
+                    String s = step.trim();
+                    // "SCAN t [USING INDEX i]" visits every row of t (or i); SEARCH seeks by key
+                    if (s.startsWith("SCAN ") && !s.equals("SCAN CONSTANT ROW")) {
+                        System.out.println("[Database] Full scan in " + q.getKey() + ": " + s);
+                        scans++;
+                    }
+                }
+            }
+        }
+        return scans;
+    }
+
+    /** Refreshes planner statistics, sampling rather than scanning whole tables. */
+    public void analyze() throws SQLException {
+        try (Connection c = connect(); Statement st = c.createStatement()) {
+            st.execute("PRAGMA analysis_limit=1000");
+            st.execute("PRAGMA optimize");
         }
     }
 }
@@ -0,0 +1,156 @@
+package com.expensedash.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import com.expensedash.server.model.Expense;
+import com.expensedash.server.protocol.FieldCursor;
+
+/**
+ * Streams CSV rows sent between IMPORT_BEGIN|gid and IMPORT_END off the client socket.
+ *
+ * Row format: payer,amount,description[,created_at]
+ * - a first row starting with "payer" is treated as a header and skipped
+ * - fields may be double-quoted ("" escapes a quote); one record per line
+ * - payer and description may not contain '|', since rows are sent back as protocol lines
+ * - created_at is "YYYY-MM-DD" or "YYYY-MM-DD HH:MM:SS" (UTC, like CURRENT_TIMESTAMP)
+ * - rows that fail validation are counted in {@link #rejected()} and skipped; the
+ *   first {@link #MAX_REPORTED} are listed with their line numbers in {@link #rejections()}
+ *
+ * Only one row is parsed ahead, so memory use does not depend on the file size.
+ */
+public class ExpenseImporter implements Iterator<Expense> {
+    public static final String END = "IMPORT_END";
+    public static final int MAX_REPORTED = 20;
+    private static final DateTimeFormatter DATE_TIME =
+            DateTimeFormatter.ofPattern("uuuu-MM-dd HH:mm:ss").withResolverStyle(ResolverStyle.STRICT);
+
+    private final BufferedReader in;
+    private final int groupId;
+    private Expense next;
+    private boolean done;
+    private int lineNo;
+    private int rejected;
+    private final List<String> rejections = new ArrayList<>();
+
+    public ExpenseImporter(BufferedReader in, int groupId) {
+        this.in = in;
+        this.groupId = groupId;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && !done) {
+            String line;
+            try {
+                line = in.readLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (line == null || line.equals(END)) {
+                done = true;
+                break;
+            }
+            lineNo++;
+            if (line.isBlank()) continue;
+            next = parse(line);
+        }
+        return next != null;
+    }
+
+    @Override
+    public Expense next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Expense e = next;
+        next = null;
+        return e;
+    }
+
+    /** Consumes the rest of the upload, e.g. after the import was refused. */
+    public void drain() {
+        while (hasNext()) next();
+    }
+
+    public int rejected() {
+        return rejected;
+    }
+
+    /** "line|reason" for the first rejected rows, in file order. */
+    public List<String> rejections() {
+        return rejections;
+    }
+
+    private Expense parse(String line) {
+        List<String> f = splitCsv(line);
+        if (lineNo == 1 && f.get(0).trim().equalsIgnoreCase("payer")) return null;
+        try {
+            String payer = FieldCursor.checkField("Payer", f.get(0).trim());
+            if (payer.isEmpty()) throw new IllegalArgumentException("Missing payer");
+            if (f.size() < 2) throw new IllegalArgumentException("Missing amount");
+            double amount;
+            try {
+                amount = Double.parseDouble(f.get(1).trim());
+            } catch (NumberFormatException e) {
+                amount = Double.NaN;
+            }
+            if (!(amount > 0) || Double.isInfinite(amount)) throw new IllegalArgumentException("Bad amount " + f.get(1).trim());
+            String desc = f.size() > 2 ? FieldCursor.checkField("Description", f.get(2).trim()) : "";
+            String createdAt = f.size() > 3 && !f.get(3).isBlank() ? checkDate(f.get(3).trim()) : null;
+            return new Expense(0, groupId, payer, amount, desc.isEmpty() ? "Imported expense" : desc, createdAt);
+        } catch (RuntimeException e) {
+            rejected++;
+            if (rejections.size() < MAX_REPORTED) rejections.add(lineNo + "|" + e.getMessage());
+            return null;
+        }
+    }
+
+    // Stored as given, so it must be in the one format rollups, ranges and reports read
+    private static String checkDate(String s) {
+        try {
+            if (s.length() == 10) LocalDate.parse(s);
+            else LocalDateTime.parse(s, DATE_TIME);
+            return s;
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Bad date " + s);
+        }
+    }
+
+    static List<String> splitCsv(String line) {
+        List<String> out = new ArrayList<>(4);
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if (quoted) {
+                if (ch == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        cur.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    cur.append(ch);
+                }
+            } else if (ch == '"') {
+                quoted = true;
+            } else if (ch == ',') {
+                out.add(cur.toString());
+                cur.setLength(0);
+            } else {
+                cur.append(ch);
+            }
+        }
+        out.add(cur.toString());
+        return out;
+    }
+}
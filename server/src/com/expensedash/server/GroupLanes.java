@@ -0,0 +1,105 @@
+package com.expensedash.server;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sharded single-threaded executors ("lanes") for group mutations.
+ *
+ * Every group id maps to exactly one lane, so the database writes and the
+ * broadcasts of one group happen strictly in submission order, while groups
+ * on different lanes run in parallel. The lane count defaults to the number
+ * of cores (override with -Dexpensedash.lanes=N).
+ */
+public class GroupLanes {
+    private final Lane[] lanes;
+
+    public GroupLanes(int count) {
+        lanes = new Lane[Math.max(1, count)];
+        for (int i = 0; i < lanes.length; i++) lanes[i] = new Lane(i);
+    }
+
+    public static GroupLanes fromConfig() {
+        return new GroupLanes(Integer.getInteger("expensedash.lanes", Runtime.getRuntime().availableProcessors()));
+    }
+
+    /** Runs {@code task} on the group's lane and waits for its result. */
+    public <T> T call(int groupId, Callable<T> task) throws Exception {
+        try {
+            return lane(groupId).submit(task).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception ex) throw ex;
+            throw e;
+        }
+    }
+
+    private Lane lane(int groupId) {
+        return lanes[Math.floorMod(groupId, lanes.length)];
+    }
+
+    /** One line per lane that has seen work: depth, completed tasks and queue wait. */
+    public String stats() {
+        StringBuilder sb = new StringBuilder();
+        for (Lane l : lanes) {
+            long done = l.completed.get();
+            if (done == 0 && l.depth.get() == 0) continue;
+            sb.append("lane=").append(l.index)
+                    .append(" depth=").append(l.depth.get())
+                    .append(" done=").append(done)
+                    .append(" avgWaitUs=").append(done == 0 ? 0 : l.waitNanos.get() / done / 1000)
+                    .append(" maxWaitUs=").append(l.maxWaitNanos.get() / 1000)
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Prints {@link #stats()} periodically on a daemon thread. */
+    public void startReporter(int intervalSeconds) {
+        if (intervalSeconds <= 0) return;
+        ScheduledExecutorService ses = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lane-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        ses.scheduleAtFixedRate(() -> {
+            String s = stats();
+            if (!s.isEmpty()) System.out.print("[Lanes]\n" + s);
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private static final class Lane {
+        final int index;
+        final ExecutorService exec;
+        final AtomicInteger depth = new AtomicInteger();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong waitNanos = new AtomicLong();
+        final AtomicLong maxWaitNanos = new AtomicLong();
+
+        Lane(int index) {
+            this.index = index;
+            this.exec = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "group-lane-" + index);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        <T> Future<T> submit(Callable<T> task) {
+            long queuedAt = System.nanoTime();
+            depth.incrementAndGet();
+            return exec.submit(() -> {
+                long waited = System.nanoTime() - queuedAt;
+                depth.decrementAndGet();
+                waitNanos.addAndGet(waited);
+                maxWaitNanos.accumulateAndGet(waited, Math::max);
+                try {
+                    return task.call();
+                } finally {
+                    completed.incrementAndGet();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.expensedash.server;
+
+import com.expensedash.server.metrics.Metrics;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds connections whose other end went away without closing them (a laptop that
+ * went to sleep, a dropped Wi-Fi link), so they stop holding a thread and a place in
+ * every broadcast.
+ *
+ *  - Each socket has a read timeout of -Dexpensedash.idle.timeoutSeconds (default 90).
+ *    A session that sends nothing for that long is dropped by its own thread.
+ *  - Every -Dexpensedash.heartbeat.seconds (default 30), each session that has sent
+ *    nothing for that long gets "PING". Clients answer "PONG", which keeps a quiet but
+ *    live client under the timeout.
+ *  - A session whose queued output has not moved for the idle timeout is writing to a
+ *    peer that stopped reading. Its thread may never get back to the read, so it is
+ *    aborted here.
+ */
+public class Heartbeat {
+    static final int INTERVAL_SECONDS = Integer.getInteger("expensedash.heartbeat.seconds", 30);
+    static final int IDLE_TIMEOUT_SECONDS = Integer.getInteger("expensedash.idle.timeoutSeconds", 90);
+    static final LongAdder REAPED_IDLE = Metrics.counter("expensedash_sessions_reaped_total", "reason", "idle");
+    private static final LongAdder REAPED_STALLED = Metrics.counter("expensedash_sessions_reaped_total", "reason", "stalled");
+
+    private final List<ClientSession> clients;
+
+    Heartbeat(List<ClientSession> clients) {
+        this.clients = clients;
+    }
+
+    /** Read timeout for a new connection's socket, in milliseconds (0 = none). */
+    static int readTimeoutMillis() {
+        return Math.max(0, IDLE_TIMEOUT_SECONDS) * 1000;
+    }
+
+    void start() {
+        if (INTERVAL_SECONDS <= 0) return;
+        ScheduledExecutorService ses = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        ses.scheduleWithFixedDelay(this::beat, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void beat() {
+        long now = System.nanoTime();
+        long quiet = TimeUnit.SECONDS.toNanos(INTERVAL_SECONDS);
+        long idle = TimeUnit.SECONDS.toNanos(IDLE_TIMEOUT_SECONDS);
+        for (ClientSession c : clients) {
+            if (IDLE_TIMEOUT_SECONDS > 0 && c.stalled(now, idle)) {
+                System.out.println("[Heartbeat] Output stalled, dropping " + describe(c));
+                REAPED_STALLED.increment();
+                clients.remove(c);
+                c.abort();
+            } else if (now - c.lastRead >= quiet) {
+                c.offer("PING");
+            }
+        }
+    }
+
+    static String describe(ClientSession c) {
+        return c.username != null ? c.username : String.valueOf(c.socket.getInetAddress());
+    }
+}
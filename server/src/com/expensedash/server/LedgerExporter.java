@@ -0,0 +1,100 @@
+package com.expensedash.server;
+
+import java.util.function.Consumer;
+
+/**
+ * Streams a group's ledger to a client as EXPORT_* lines.
+ *
+ *   EXPORT_BEGIN|gid|format
+ *   EXPORT_ROW|<one line of the output file>   (repeated)
+ *   EXPORT_END|rowCount
+ *
+ * The server owns the file format, so the client only has to write each
+ * EXPORT_ROW payload followed by a newline. Rows go straight from the JDBC
+ * cursor into {@code out}; nothing is collected in between. When {@code out}
+ * is a session's bounded outbox, a slow reader throttles the cursor.
+ */
+public class LedgerExporter {
+    public static final String CSV = "csv";
+    public static final String JSON = "json";
+
+    private final Database db;
+
+    public LedgerExporter(Database db) {
+        this.db = db;
+    }
+
+    public int export(int gid, String format, Consumer<String> out) throws Exception {
+        boolean json = JSON.equalsIgnoreCase(format);
+        out.accept("EXPORT_BEGIN|" + gid + "|" + (json ? JSON : CSV));
+        out.accept(json ? "EXPORT_ROW|[" : "EXPORT_ROW|id,created_at,payer,amount,description,status");
+
+        StringBuilder sb = new StringBuilder(128);
+        boolean[] first = {true};
+        int rows = db.exportExpenses(gid, (id, createdAt, payer, amount, desc, settled) -> {
+            sb.setLength(0);
+            sb.append("EXPORT_ROW|");
+            if (json) {
+                if (!first[0]) sb.append(',');
+                first[0] = false;
+                sb.append("{\"id\":").append(id)
+                        .append(",\"created_at\":"); jsonString(sb, createdAt);
+                sb.append(",\"payer\":"); jsonString(sb, payer);
+                sb.append(",\"amount\":").append(amount)
+                        .append(",\"description\":"); jsonString(sb, desc);
+                sb.append(",\"status\":\"").append(settled ? "settled" : "open").append("\"}");
+            } else {
+                sb.append(id).append(',');
+                csvField(sb, createdAt); sb.append(',');
+                csvField(sb, payer); sb.append(',');
+                sb.append(amount).append(',');
+                csvField(sb, desc); sb.append(',');
+                sb.append(settled ? "settled" : "open");
+            }
+            out.accept(sb.toString());
+        });
+
+        if (json) out.accept("EXPORT_ROW|]");
+        out.accept("EXPORT_END|" + rows);
+        return rows;
+    }
+
+    private static void csvField(StringBuilder sb, String v) {
+        if (v == null) return;
+        boolean quote = v.indexOf(',') >= 0 || v.indexOf('"') >= 0;
+        if (!quote) {
+            sb.append(v);
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < v.length(); i++) {
+            char ch = v.charAt(i);
+            if (ch == '"') sb.append('"');
+            sb.append(ch);
+        }
+        sb.append('"');
+    }
+
+    private static void jsonString(StringBuilder sb, String v) {
+        if (v == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < v.length(); i++) {
+            char ch = v.charAt(i);
+            switch (ch) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (ch < 0x20) sb.append(String.format("\\u%04x", (int) ch));
+                    else sb.append(ch);
+                }
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,92 @@
+package com.expensedash.server;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background housekeeping for the SQLite file.
+ * - Moves expenses older than the retention window into the archive tables
+ * - Reclaims free pages with incremental VACUUM and refreshes planner stats
+ * - Forgets expired idempotency keys
+ *
+ * Runs on a single low-priority daemon thread. Work is done in small batches
+ * with a pause between them, so request threads only ever wait for one short
+ * transaction. Each batch is admitted as BACKGROUND work by the
+ * {@link RequestScheduler}, so it yields to queued snapshots and reports.
+ *
+ * Tunables (system properties):
+ *   expensedash.maintenance.intervalMinutes  (default 60)
+ *   expensedash.archive.retentionDays        (default 0 = keep everything hot)
+ *   expensedash.archive.batchSize            (default 500)
+ *   expensedash.archive.pauseMillis          (default 250)
+ *   expensedash.vacuum.pages                 (default 2000)
+ *   expensedash.vacuum.convert               (default false; see Database.compact)
+ *   expensedash.idempotency.retentionHours   (default 24)
+ */
+public class MaintenanceScheduler {
+    private final Database db;
+    private final RequestScheduler scheduler;
+    private final int intervalMinutes = Integer.getInteger("expensedash.maintenance.intervalMinutes", 60);
+    private final int retentionDays = Integer.getInteger("expensedash.archive.retentionDays", 0);
+    private final int batchSize = Integer.getInteger("expensedash.archive.batchSize", 500);
+    private final long pauseMillis = Long.getLong("expensedash.archive.pauseMillis", 250);
+    private final int vacuumPages = Integer.getInteger("expensedash.vacuum.pages", 2000);
+    private final boolean vacuumConvert = Boolean.getBoolean("expensedash.vacuum.convert");
+    private boolean warnedNoVacuum;
+    private final int keyRetentionHours = Integer.getInteger("expensedash.idempotency.retentionHours", 24);
+
+    private final ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "maintenance");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    public MaintenanceScheduler(Database db, RequestScheduler scheduler) {
+        this.db = db;
+        this.scheduler = scheduler;
+    }
+
+    public void start() {
+        if (intervalMinutes <= 0) return;
+        exec.scheduleWithFixedDelay(this::runOnce, 1, intervalMinutes, TimeUnit.MINUTES);
+        System.out.println("[Maintenance] Scheduled every " + intervalMinutes + " min" +
+                (retentionDays > 0 ? ", archiving expenses older than " + retentionDays + " days" : ""));
+    }
+
+    public void stop() {
+        exec.shutdownNow();
+    }
+
+    void runOnce() {
+        try {
+            int archived = 0;
+            if (retentionDays > 0) {
+                int moved;
+                do {
+                    moved = scheduler.call(RequestScheduler.Priority.BACKGROUND,
+                            () -> db.archiveExpensesOlderThan(retentionDays, batchSize));
+                    archived += moved;
+                    if (moved > 0) Thread.sleep(pauseMillis);
+                } while (moved == batchSize);
+            }
+            scheduler.call(RequestScheduler.Priority.BACKGROUND, () -> db.purgeIdempotencyKeys(keyRetentionHours));
+            boolean compacted = scheduler.call(RequestScheduler.Priority.BACKGROUND, () -> db.compact(vacuumPages, vacuumConvert));
+            if (!compacted && !warnedNoVacuum) {
+                warnedNoVacuum = true;
+                System.out.println("[Maintenance] Database predates incremental auto-vacuum, so free pages are kept. " +
+                        "Start once with -Dexpensedash.vacuum.convert=true at a quiet time to convert it (full VACUUM).");
+            }
+            scheduler.call(RequestScheduler.Priority.BACKGROUND, () -> {
+                db.analyze();
+                return null;
+            });
+            if (archived > 0) System.out.println("[Maintenance] Archived " + archived + " expenses");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.out.println("[Maintenance] Pass failed: " + e.getMessage());
+        }
+    }
+}
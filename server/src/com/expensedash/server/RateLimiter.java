@@ -0,0 +1,166 @@
+package com.expensedash.server;
+
+import com.expensedash.server.metrics.Metrics;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps one client from taking the server away from everyone else.
+ *
+ *  - Token buckets per session and per user, one for each command class of
+ *    {@link RequestScheduler#classify}. A command over either limit is not run; the
+ *    client is told when to try again. A user's bucket holds
+ *    -Dexpensedash.rate.userSessions sessions' worth, so opening more connections does
+ *    not raise the limit.
+ *  - A global cap on commands working on the database at once
+ *    (-Dexpensedash.db.maxInFlight). A command that cannot get in within
+ *    -Dexpensedash.db.queueMillis is shed instead of queueing without bound.
+ *
+ * Both reject by throwing {@link Throttled}; handleClient turns it into
+ * "THROTTLED|retryAfterMillis". A rate of 0 disables that class's limit.
+ */
+public class RateLimiter {
+
+    /** A command was refused; it has had no effect. */
+    public static final class Throttled extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final long retryAfterMillis;
+
+        Throttled(long retryAfterMillis) {
+            super("throttled", null, false, false);
+            this.retryAfterMillis = retryAfterMillis;
+        }
+    }
+
+    /** Refills at {@code perSecond}, holds at most {@code burst} tokens. */
+    static final class Bucket {
+        private final double perNano, burst;
+        private double tokens;
+        private long last = System.nanoTime();
+
+        Bucket(double perSecond, double burst) {
+            this.perNano = perSecond / 1e9;
+            this.burst = Math.max(1, burst);
+            this.tokens = this.burst;
+        }
+
+        /** Takes a token; returns 0, or the nanos until one will be available. */
+        synchronized long take(long now) {
+            if (now > last) {
+                tokens = Math.min(burst, tokens + (now - last) * perNano);
+                last = now;
+            }
+            if (tokens >= 1) {
+                tokens--;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / perNano);
+        }
+    }
+
+    /** One bucket per command class (null when that class is unlimited). */
+    public final class Buckets {
+        private final Bucket[] byClass = new Bucket[RequestScheduler.Priority.values().length];
+
+        private Buckets(int sessions) {
+            for (int c = 0; c < byClass.length; c++)
+                if (perSecond[c] > 0) byClass[c] = new Bucket(perSecond[c] * sessions, burst[c] * sessions);
+        }
+    }
+
+    private final double[] perSecond, burst;
+    private final int userSessions;
+    private final Semaphore inFlight;
+    private final long queueMillis;
+    private final Map<String, Buckets> users = new ConcurrentHashMap<>();
+    private final LongAdder throttledSession = Metrics.counter("expensedash_throttled_total", "reason", "session");
+    private final LongAdder throttledUser = Metrics.counter("expensedash_throttled_total", "reason", "user");
+    private final LongAdder shed = Metrics.counter("expensedash_throttled_total", "reason", "overload");
+
+    public RateLimiter(double[] perSecond, double[] burst, int userSessions, int maxInFlight, long queueMillis) {
+        this.perSecond = perSecond;
+        this.burst = burst;
+        this.userSessions = Math.max(1, userSessions);
+        this.inFlight = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+        this.queueMillis = queueMillis;
+        if (inFlight != null) Metrics.gauge("expensedash_db_inflight", () -> maxInFlight - inFlight.availablePermits());
+    }
+
+    public static RateLimiter fromConfig() {
+        // BACKGROUND work never comes from clients
+        double[] perSecond = {
+                Double.parseDouble(System.getProperty("expensedash.rate.interactive.perSecond", "20")),
+                Double.parseDouble(System.getProperty("expensedash.rate.bulk.perSecond", "1")),
+                0 };
+        double[] burst = {
+                Double.parseDouble(System.getProperty("expensedash.rate.interactive.burst", "100")),
+                Double.parseDouble(System.getProperty("expensedash.rate.bulk.burst", "10")),
+                0 };
+        return new RateLimiter(perSecond, burst,
+                Integer.getInteger("expensedash.rate.userSessions", 3),
+                Integer.getInteger("expensedash.db.maxInFlight", Math.max(8, 4 * Runtime.getRuntime().availableProcessors())),
+                Long.getLong("expensedash.db.queueMillis", 500));
+    }
+
+    public Buckets newSession() {
+        return new Buckets(1);
+    }
+
+    /**
+     * Charges one command of class {@code p} to the session and, once logged in, to its user.
+     * @throws Throttled if either is over its limit
+     */
+    public void check(Buckets session, String username, RequestScheduler.Priority p) {
+        int c = p.ordinal();
+        long now = System.nanoTime();
+        Bucket b = session.byClass[c];
+        long wait = b == null ? 0 : b.take(now);
+        if (wait > 0) {
+            throttledSession.increment();
+            throw new Throttled(TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+        }
+        if (username == null) return;
+        b = users.computeIfAbsent(username, u -> new Buckets(userSessions)).byClass[c];
+        wait = b == null ? 0 : b.take(now);
+        if (wait > 0) {
+            throttledUser.increment();
+            throw new Throttled(TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+        }
+    }
+
+    /**
+     * Runs {@code task} holding one of the in-flight permits.
+     * @throws Throttled if none frees up within the queue time
+     */
+    public <T> T withPermit(Callable<T> task) throws Exception {
+        if (inFlight == null) return task.call();
+        if (!inFlight.tryAcquire(queueMillis, TimeUnit.MILLISECONDS)) {
+            shed.increment();
+            throw new Throttled(Math.max(1, queueMillis));
+        }
+        try {
+            return task.call();
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    /**
+     * Like {@link #withPermit}, but waits for a permit however long it takes: for the later
+     * parts of work already partly applied, which must not be shed halfway.
+     */
+    public <T> T withPermitWaiting(Callable<T> task) throws Exception {
+        if (inFlight == null) return task.call();
+        inFlight.acquire();
+        try {
+            return task.call();
+        } finally {
+            inFlight.release();
+        }
+    }
+}
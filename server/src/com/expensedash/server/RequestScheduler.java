@@ -0,0 +1,119 @@
+package com.expensedash.server;
+
+import com.expensedash.server.metrics.Histogram;
+import com.expensedash.server.metrics.Metrics;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission control by class of work, so heavy requests cannot crowd out small ones.
+ *
+ *  - INTERACTIVE: everything not listed below (ADD_EXPENSE, SEARCH_GROUP, ...). At most
+ *    -Dexpensedash.scheduler.interactive at once (default: 4 per core, at least 8).
+ *    These commands are short, so the share is wide, but a flood of them still
+ *    leaves the database to the bulk slots rather than taking every connection.
+ *  - BULK: snapshots, export, import, range and report queries. At most
+ *    -Dexpensedash.scheduler.bulk run at once (default: core count, at least 2);
+ *    the rest wait in arrival order.
+ *  - BACKGROUND: maintenance batches. At most -Dexpensedash.scheduler.background
+ *    at once (default 1), and each also holds a bulk slot, so background work is
+ *    admitted behind any bulk work already queued and never adds to a storm.
+ *
+ * A snapshot storm therefore takes at most the bulk slots' share of the database,
+ * and ADD_EXPENSE latency stays flat however many snapshots are queued.
+ */
+public class RequestScheduler {
+    public enum Priority { INTERACTIVE, BULK, BACKGROUND }
+
+    static final Set<String> BULK_OPS = Set.of("REQUEST_SNAPSHOT", "EXPORT", "IMPORT_BEGIN", "EXPENSES_RANGE", "REPORT");
+
+    private final Semaphore interactive, bulk, background;
+    private final AtomicInteger interactiveActive = new AtomicInteger(), bulkActive = new AtomicInteger(),
+            backgroundActive = new AtomicInteger();
+    private final Histogram interactiveWait = Metrics.timer("expensedash_scheduler_wait_seconds", "class", "interactive");
+    private final Histogram bulkWait = Metrics.timer("expensedash_scheduler_wait_seconds", "class", "bulk");
+    private final Histogram backgroundWait = Metrics.timer("expensedash_scheduler_wait_seconds", "class", "background");
+    private final ExecutorService async = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "bulk-async");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public RequestScheduler(int interactiveLimit, int bulkLimit, int backgroundLimit) {
+        interactive = new Semaphore(Math.max(1, interactiveLimit), true);
+        bulk = new Semaphore(Math.max(1, bulkLimit), true);
+        background = new Semaphore(Math.max(1, backgroundLimit), true);
+        Metrics.gauge("expensedash_scheduler_interactive_active", interactiveActive::get);
+        Metrics.gauge("expensedash_scheduler_interactive_waiting", interactive::getQueueLength);
+        Metrics.gauge("expensedash_scheduler_bulk_active", bulkActive::get);
+        Metrics.gauge("expensedash_scheduler_bulk_waiting", bulk::getQueueLength);
+        Metrics.gauge("expensedash_scheduler_background_active", backgroundActive::get);
+    }
+
+    public static RequestScheduler fromConfig() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return new RequestScheduler(
+                Integer.getInteger("expensedash.scheduler.interactive", Math.max(8, 4 * cores)),
+                Integer.getInteger("expensedash.scheduler.bulk", Math.max(2, cores)),
+                Integer.getInteger("expensedash.scheduler.background", 1));
+    }
+
+    public static Priority classify(String opcode) {
+        return BULK_OPS.contains(opcode) ? Priority.BULK : Priority.INTERACTIVE;
+    }
+
+    /** Runs {@code task} on the calling thread once its class admits it. */
+    public <T> T call(Priority p, Callable<T> task) throws Exception {
+        long start = System.nanoTime();
+        if (p == Priority.INTERACTIVE) {
+            interactive.acquire();
+            try {
+                interactiveWait.recordSince(start);
+                interactiveActive.incrementAndGet();
+                try {
+                    return task.call();
+                } finally {
+                    interactiveActive.decrementAndGet();
+                }
+            } finally {
+                interactive.release();
+            }
+        }
+        if (p == Priority.BACKGROUND) background.acquire();
+        try {
+            bulk.acquire();
+            try {
+                (p == Priority.BULK ? bulkWait : backgroundWait).recordSince(start);
+                AtomicInteger active = p == Priority.BULK ? bulkActive : backgroundActive;
+                active.incrementAndGet();
+                try {
+                    return task.call();
+                } finally {
+                    active.decrementAndGet();
+                }
+            } finally {
+                bulk.release();
+            }
+        } finally {
+            if (p == Priority.BACKGROUND) background.release();
+        }
+    }
+
+    /** Queues {@code task} for bulk admission without blocking the caller; failures are logged. */
+    public void submitBulk(Callable<?> task) {
+        async.execute(() -> {
+            try {
+                call(Priority.BULK, task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                System.out.println("[Scheduler] Bulk task failed: " + e.getMessage());
+            }
+        });
+    }
+}
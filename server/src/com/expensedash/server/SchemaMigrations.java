@@ -0,0 +1,259 @@
+package com.expensedash.server;
+
+import java.sql.*;
+import java.util.List;
+
+/**
+ * Ordered schema changes on top of the tables {@link Database#init} creates.
+ *
+ * The highest applied version is kept in schema_version. On startup every newer
+ * migration runs in order, and its version row is written in the same transaction
+ * as its last change, so a crash never leaves a migration half-recorded.
+ *
+ * Two kinds of migration:
+ *  - {@link #sql}: a few statements in one transaction (DDL, index builds)
+ *  - {@link #chunked}: a data backfill that runs as many short transactions as it
+ *    needs. Each chunk must leave the data consistent and return how many rows it
+ *    handled; 0 means done. A restart simply continues with the remaining rows.
+ *
+ * To change the schema, append a migration with the next version number. Never edit
+ * or reorder one that has shipped.
+ */
+final class SchemaMigrations {
+    /** One chunk of a backfill, run in its own transaction. */
+    interface Chunk {
+        /** @return rows handled; 0 when there is nothing left to do */
+        int run(Connection c) throws SQLException;
+    }
+
+    record Migration(int version, String description, List<String> statements, Chunk chunk) {}
+
+    static Migration sql(int version, String description, String... statements) {
+        return new Migration(version, description, List.of(statements), null);
+    }
+
+    static Migration chunked(int version, String description, Chunk chunk) {
+        return new Migration(version, description, List.of(), chunk);
+    }
+
+    private static final int DEDUPE_CHUNK = 1000;
+
+    static final List<Migration> ALL = List.of(
+            // Users who joined a group twice before isMemberInGroup existed have two member
+            // rows; fold each duplicate into the oldest row so (name, group_id) can be unique
+            chunked(1, "merge duplicate members", SchemaMigrations::mergeDuplicateMembers),
+            // getGroupsForUser and isMemberInGroup look members up by name
+            sql(2, "unique members per group",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS ux_members_name_group ON members(name, group_id)"),
+            // age-based archiving and time-range queries
+            sql(3, "index expenses by creation time",
+                    "CREATE INDEX IF NOT EXISTS idx_expenses_created ON expenses(created_at)"),
+            // splits(expense_id) needs no index: the (expense_id, member_id) primary key serves it
+
+            // EXPENSES_RANGE reads open and archived expenses of one group by time; the
+            // (group_id, created_at) index also serves every plain group_id lookup (groupVersion,
+            // getExpensesForGroup), so expenses needs no separate group index. ROLLUP reads
+            // per-group, per-month, per-payer totals that a trigger keeps current on every insert,
+            // whichever Database method inserts; archiving does not touch them
+            sql(4, "time-range indexes and monthly rollups",
+                    "CREATE INDEX IF NOT EXISTS idx_expenses_group_created ON expenses(group_id, created_at)",
+                    "CREATE INDEX IF NOT EXISTS idx_expenses_archive_group_created ON expenses_archive(group_id, created_at)",
+                    "CREATE TABLE IF NOT EXISTS expense_rollups(" +
+                            "group_id INTEGER NOT NULL, " +
+                            "month TEXT NOT NULL, " +
+                            "payer TEXT NOT NULL, " +
+                            "total REAL NOT NULL, " +
+                            "count INTEGER NOT NULL, " +
+                            "PRIMARY KEY(group_id, month, payer)) WITHOUT ROWID",
+                    "CREATE TRIGGER IF NOT EXISTS trg_expenses_rollup AFTER INSERT ON expenses BEGIN " +
+                            "INSERT INTO expense_rollups(group_id, month, payer, total, count) " +
+                            "VALUES (NEW.group_id, substr(NEW.created_at, 1, 7), NEW.payer, NEW.amount, 1) " +
+                            "ON CONFLICT(group_id, month, payer) DO UPDATE SET " +
+                            "total = total + excluded.total, count = count + 1; END"),
+            chunked(5, "backfill monthly rollups", new WindowedBackfill("expense_rollups", List.of("expenses", "expenses_archive"),
+                    "INSERT INTO expense_rollups(group_id, month, payer, total, count) " +
+                            "SELECT group_id, substr(created_at, 1, 7), payer, SUM(amount), COUNT(*) FROM {table} " +
+                            "WHERE id >= ? AND id < ? GROUP BY 1, 2, 3 " +
+                            "ON CONFLICT(group_id, month, payer) DO UPDATE SET " +
+                            "total = total + excluded.total, count = count + excluded.count")),
+
+            // USER_SUMMARY: each user's paid / owed / receivable per group over open expenses,
+            // kept in the same transaction as every insert, and as every delete (settle, archive)
+            // so balances drop out exactly when the expenses leave the hot tables. Amounts are
+            // integer cents: REAL sums drift, and a settled group would read back as -0.0.
+            // Splits are deleted before their expense, so the split triggers can still see its payer.
+            sql(6, "per-user balances",
+                    "CREATE TABLE IF NOT EXISTS user_balances(" +
+                            "username TEXT NOT NULL, " +
+                            "group_id INTEGER NOT NULL, " +
+                            "paid_cents INTEGER NOT NULL DEFAULT 0, " +
+                            "owed_cents INTEGER NOT NULL DEFAULT 0, " +
+                            "receivable_cents INTEGER NOT NULL DEFAULT 0, " +
+                            "PRIMARY KEY(username, group_id)) WITHOUT ROWID",
+                    "CREATE TRIGGER IF NOT EXISTS trg_balances_expense_ins AFTER INSERT ON expenses BEGIN " +
+                            "INSERT INTO user_balances(username, group_id, paid_cents) " +
+                            "VALUES (NEW.payer, NEW.group_id, CAST(ROUND(NEW.amount * 100) AS INTEGER)) " +
+                            "ON CONFLICT(username, group_id) DO UPDATE SET paid_cents = paid_cents + excluded.paid_cents; END",
+                    "CREATE TRIGGER IF NOT EXISTS trg_balances_expense_del AFTER DELETE ON expenses BEGIN " +
+                            "UPDATE user_balances SET paid_cents = paid_cents - CAST(ROUND(OLD.amount * 100) AS INTEGER) " +
+                            "WHERE username = OLD.payer AND group_id = OLD.group_id; END",
+                    "CREATE TRIGGER IF NOT EXISTS trg_balances_split_ins AFTER INSERT ON splits BEGIN " +
+                            "INSERT INTO user_balances(username, group_id, owed_cents) " +
+                            "SELECT m.name, e.group_id, CAST(ROUND(NEW.amount * 100) AS INTEGER) FROM members m, expenses e " +
+                            "WHERE m.id = NEW.member_id AND e.id = NEW.expense_id AND m.name <> e.payer " +
+                            "ON CONFLICT(username, group_id) DO UPDATE SET owed_cents = owed_cents + excluded.owed_cents; " +
+                            "INSERT INTO user_balances(username, group_id, receivable_cents) " +
+                            "SELECT e.payer, e.group_id, CAST(ROUND(NEW.amount * 100) AS INTEGER) FROM members m, expenses e " +
+                            "WHERE m.id = NEW.member_id AND e.id = NEW.expense_id AND m.name <> e.payer " +
+                            "ON CONFLICT(username, group_id) DO UPDATE SET receivable_cents = receivable_cents + excluded.receivable_cents; END",
+                    "CREATE TRIGGER IF NOT EXISTS trg_balances_split_del AFTER DELETE ON splits BEGIN " +
+                            "UPDATE user_balances SET owed_cents = owed_cents - CAST(ROUND(OLD.amount * 100) AS INTEGER) " +
+                            "WHERE (username, group_id) IN (" +
+                            "SELECT m.name, e.group_id FROM members m, expenses e " +
+                            "WHERE m.id = OLD.member_id AND e.id = OLD.expense_id AND m.name <> e.payer); " +
+                            "UPDATE user_balances SET receivable_cents = receivable_cents - CAST(ROUND(OLD.amount * 100) AS INTEGER) " +
+                            "WHERE (username, group_id) IN (" +
+                            "SELECT e.payer, e.group_id FROM members m, expenses e " +
+                            "WHERE m.id = OLD.member_id AND e.id = OLD.expense_id AND m.name <> e.payer); END"),
+            chunked(7, "backfill per-user balances", new WindowedBackfill("user_balances", List.of("expenses"),
+                    "INSERT INTO user_balances(username, group_id, paid_cents) " +
+                            "SELECT payer, group_id, SUM(CAST(ROUND(amount * 100) AS INTEGER)) FROM {table} " +
+                            "WHERE id >= ? AND id < ? GROUP BY 1, 2 " +
+                            "ON CONFLICT(username, group_id) DO UPDATE SET paid_cents = paid_cents + excluded.paid_cents",
+                    "INSERT INTO user_balances(username, group_id, owed_cents) " +
+                            "SELECT m.name, e.group_id, SUM(CAST(ROUND(s.amount * 100) AS INTEGER)) FROM {table} e, splits s, members m " +
+                            "WHERE e.id >= ? AND e.id < ? AND s.expense_id = e.id AND m.id = s.member_id AND m.name <> e.payer " +
+                            "GROUP BY 1, 2 " +
+                            "ON CONFLICT(username, group_id) DO UPDATE SET owed_cents = owed_cents + excluded.owed_cents",
+                    "INSERT INTO user_balances(username, group_id, receivable_cents) " +
+                            "SELECT e.payer, e.group_id, SUM(CAST(ROUND(s.amount * 100) AS INTEGER)) FROM {table} e, splits s, members m " +
+                            "WHERE e.id >= ? AND e.id < ? AND s.expense_id = e.id AND m.id = s.member_id AND m.name <> e.payer " +
+                            "GROUP BY 1, 2 " +
+                            "ON CONFLICT(username, group_id) DO UPDATE SET receivable_cents = receivable_cents + excluded.receivable_cents"))
+    );
+
+    private SchemaMigrations() {}
+
+    /** @return number of migrations applied */
+    static int apply(Database db) throws SQLException {
+        int current;
+        try (Connection c = db.connect(); Statement st = c.createStatement()) {
+            st.execute("CREATE TABLE IF NOT EXISTS schema_version(" +
+                    "version INTEGER PRIMARY KEY, " +
+                    "description TEXT NOT NULL, " +
+                    "applied_at TEXT DEFAULT CURRENT_TIMESTAMP)");
+            try (ResultSet rs = st.executeQuery("SELECT COALESCE(MAX(version),0) FROM schema_version")) {
+                current = rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+        int applied = 0;
+        for (Migration m : ALL) {
+            if (m.version() <= current) continue;
+            long start = System.nanoTime();
+            try (Connection c = db.connect()) {
+                c.setAutoCommit(false);
+                try {
+                    if (m.chunk() != null) {
+                        int rows = 0, n;
+                        while ((n = m.chunk().run(c)) > 0) {
+                            c.commit();
+                            rows += n;
+                        }
+                        if (rows > 0) System.out.println("[Migrate] " + m.description() + ": " + rows + " rows");
+                    }
+                    try (Statement st = c.createStatement()) {
+                        for (String sql : m.statements()) st.execute(sql);
+                    }
+                    try (PreparedStatement ps = c.prepareStatement(
+                            "INSERT INTO schema_version(version, description) VALUES (?,?)")) {
+                        ps.setInt(1, m.version());
+                        ps.setString(2, m.description());
+                        ps.executeUpdate();
+                    }
+                    c.commit();
+                } catch (SQLException e) {
+                    c.rollback();
+                    throw new SQLException("migration " + m.version() + " (" + m.description() + ") failed: " + e.getMessage(), e);
+                }
+            }
+            applied++;
+            System.out.println("[Migrate] Applied " + m.version() + " (" + m.description() + ") in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+        return applied;
+    }
+
+    /**
+     * Rebuilds a derived table from source tables, in id windows: the first chunk
+     * empties {@code target}, then every chunk runs {@code upserts} over the next window
+     * of the current table, with "{table}" replaced by its name and the two parameters
+     * bound to the window's first and one-past-last id. A backfill cut short by a restart
+     * is simply redone; no expenses are inserted while migrations run.
+     */
+    private static final class WindowedBackfill implements Chunk {
+        private static final int WINDOW = 20_000;
+        private final String target;
+        private final List<String> tables;
+        private final String[] upserts;
+        private int table = -1;
+        private long next, max;
+
+        WindowedBackfill(String target, List<String> tables, String... upserts) {
+            this.target = target;
+            this.tables = tables;
+            this.upserts = upserts;
+        }
+
+        @Override
+        public int run(Connection c) throws SQLException {
+            try (Statement st = c.createStatement()) {
+                if (table < 0) st.execute("DELETE FROM " + target);
+                while (table < 0 || next > max) {
+                    if (++table == tables.size()) return 0;
+                    try (ResultSet rs = st.executeQuery("SELECT COALESCE(MIN(id),1), COALESCE(MAX(id),0) FROM " + tables.get(table))) {
+                        rs.next();
+                        next = rs.getLong(1);
+                        max = rs.getLong(2);
+                    }
+                }
+            }
+            int rows = 0;
+            for (String sql : upserts) {
+                try (PreparedStatement ps = c.prepareStatement(sql.replace("{table}", tables.get(table)))) {
+                    ps.setLong(1, next);
+                    ps.setLong(2, next + WINDOW);
+                    rows += ps.executeUpdate();
+                }
+            }
+            next += WINDOW;
+            return Math.max(1, rows); // an empty window is not the end
+        }
+    }
+
+    /**
+     * Moves the splits of up to {@link #DEDUPE_CHUNK} duplicate member rows onto the
+     * oldest row with the same (name, group_id), adding amounts where both had a split
+     * for the same expense, then deletes the duplicates. splits has no member_id index,
+     * so each chunk handles its duplicates with one pass per table.
+     */
+    private static int mergeDuplicateMembers(Connection c) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            st.execute("CREATE TEMP TABLE IF NOT EXISTS member_dupes(dup INTEGER PRIMARY KEY, keep INTEGER NOT NULL)");
+            st.execute("DELETE FROM member_dupes");
+            int n = st.executeUpdate("INSERT INTO member_dupes(dup, keep) " +
+                    "SELECT m.id, (SELECT MIN(k.id) FROM members k WHERE k.name=m.name AND k.group_id=m.group_id) " +
+                    "FROM members m WHERE EXISTS (SELECT 1 FROM members o " +
+                    "WHERE o.name=m.name AND o.group_id=m.group_id AND o.id<m.id) LIMIT " + DEDUPE_CHUNK);
+            if (n == 0) return 0;
+            for (String table : new String[] {"splits", "splits_archive"}) {
+                // "WHERE true" keeps SQLite from reading ON CONFLICT as the join's ON
+                st.execute("INSERT INTO " + table + "(expense_id, member_id, amount) " +
+                        "SELECT s.expense_id, d.keep, s.amount FROM " + table + " s JOIN member_dupes d ON d.dup=s.member_id " +
+                        "WHERE true ON CONFLICT(expense_id, member_id) DO UPDATE SET amount = amount + excluded.amount");
+                st.execute("DELETE FROM " + table + " WHERE member_id IN (SELECT dup FROM member_dupes)");
+            }
+            st.execute("DELETE FROM members WHERE id IN (SELECT dup FROM member_dupes)");
+            return n;
+        }
+    }
+}
@@ -1,10 +1,27 @@
 package com.expensedash.server;
 
-import java.io.*;
+import java.io.IOException;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import com.expensedash.server.jfr.BroadcastEvent;
+import com.expensedash.server.jfr.CommandEvent;
+import com.expensedash.server.jfr.SnapshotEvent;
+import com.expensedash.server.metrics.Histogram;
+import com.expensedash.server.metrics.Metrics;
 import com.expensedash.server.model.*;
+import com.expensedash.server.protocol.CommandHandler;
+import com.expensedash.server.protocol.CommandRegistry;
+import com.expensedash.server.protocol.FieldCursor;
+import com.expensedash.server.protocol.RequestHeader;
+import com.expensedash.server.reports.ReportEngine;
 
 /**
  * ✅ FINAL VERSION — ExpenseDash Server
@@ -12,23 +29,92 @@ import com.expensedash.server.model.*;
  * - Creator auto-added to group
  * - Real-time expense and membership updates
  * - Simplified, stable snapshot sync
+ *
+ * Commands are looked up by opcode in {@link #COMMANDS}; to add one, write a
+ * handler below and register it there.
+ *
+ * A command may carry a request id ("@42|ADD_GROUP|..."). Every reply to it is then
+ * prefixed with "@42|" and the command is closed by "@42|DONE", so clients can
+ * pipeline requests on one connection and match up responses. Broadcasts are
+ * never tagged.
  */
 public class ServerMain {
     public static final int PORT = 5055;
+    private static final int IMPORT_CHUNK = 5000;
+    private static final int BATCH_MAX = 10_000;
     private static final List<ClientSession> clients = new CopyOnWriteArrayList<>();
     private static Database db;
+    private static GroupLanes lanes;
+    private static ReportEngine reports;
+    private static final SessionRegistry sessions = new SessionRegistry();
+    private static final Set<String> ADMINS = Set.of(System.getProperty("expensedash.admin.users", "admin").split(","));
+
+    // Snapshots of users in several groups build per-group segments on this pool
+    // (-Dexpensedash.snapshot.threads, 1 = on the session thread); see sendSnapshot.
+    // At least 2 by default: segments spend part of their time opening connections and
+    // waiting on SQLite, so even one core gains from overlapping them
+    private static final int SNAPSHOT_THREADS = Integer.getInteger("expensedash.snapshot.threads",
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private static final ExecutorService SNAPSHOT_POOL = SNAPSHOT_THREADS > 1 ? snapshotPool() : null;
+
+    private static final Histogram BROADCAST_TIME = Metrics.timer("expensedash_broadcast_seconds");
+    private static final Histogram BROADCAST_FANOUT = Metrics.histogram("expensedash_broadcast_fanout");
+
+    private static final RequestScheduler scheduler = RequestScheduler.fromConfig();
+    private static final LongAdder SNAPSHOTS_COALESCED = Metrics.counter("expensedash_snapshots_coalesced_total");
+    private static final RateLimiter limiter = RateLimiter.fromConfig();
+    // Admitted inside the handler: an untagged snapshot must not hold up the session thread,
+    // and uploads take a permit only around their database work, never while reading lines
+    private static final Set<String> SELF_ADMITTED = Set.of("REQUEST_SNAPSHOT", "BATCH_BEGIN", "IMPORT_BEGIN");
+    // Commands followed by lines of their own, up to this terminator
+    private static final Map<String, String> BODY_END = Map.of("BATCH_BEGIN", "BATCH_END", "IMPORT_BEGIN", ExpenseImporter.END);
+
+    static final CommandRegistry<ClientSession> COMMANDS = new CommandRegistry<ClientSession>(
+            (op, h) -> limited(op, timed(op, scheduled(op, capped(op, h)))))
+            .on("REQUEST_SNAPSHOT", ServerMain::onRequestSnapshot)
+            .on("REGISTER", ServerMain::onRegister)
+            .on("LOGIN", ServerMain::onLogin)
+            .on("RESUME", ServerMain::onResume)
+            .on("BATCH_BEGIN", ServerMain::onBatch)
+            .on("STATS", ServerMain::onStats)
+            .on("REPORT", ServerMain::onReport)
+            .on("USER_SUMMARY", ServerMain::onUserSummary)
+            .on("ADD_GROUP", ServerMain::onAddGroup)
+            .on("SEARCH_GROUP", ServerMain::onSearchGroup)
+            .onGroup("JOIN_GROUP", ServerMain::onJoinGroup)
+            .onGroup("ADD_EXPENSE", ServerMain::onAddExpense)
+            .onGroup("IMPORT_BEGIN", ServerMain::onImport)
+            .onGroup("EXPORT", ServerMain::onExport)
+            .onGroup("EXPENSES_RANGE", ServerMain::onExpensesRange)
+            .onGroup("ROLLUP", ServerMain::onRollup)
+            .onGroup("ARCHIVED", ServerMain::onArchived)
+            .onGroup("SETTLE", ServerMain::onSettle);
 
     public static void main(String[] args) throws Exception {
         System.out.println("[Server] Starting on port " + PORT);
         db = new Database("expensedb.sqlite");
         db.init();
+        db.checkQueryPlans();
+        new MaintenanceScheduler(db, scheduler).start();
+        lanes = GroupLanes.fromConfig();
+        reports = ReportEngine.fromConfig(db);
+        reports.loadInBackground();
+        lanes.startReporter(Integer.getInteger("expensedash.lanes.reportSeconds", 60));
+        Metrics.gauge("expensedash_sessions_active", clients::size);
+        new Heartbeat(clients).start();
+        Metrics.startHttp(Integer.getInteger("expensedash.metrics.port", 9095));
+        TrafficCapture capture = TrafficCapture.fromConfig();
 
         try (ServerSocket serverSocket = new ServerSocket(PORT)) {
             System.out.println("[Server] Listening on port " + PORT + "...");
             while (true) {
                 Socket socket = serverSocket.accept();
-                ClientSession session = new ClientSession(socket, db);
+                socket.setSoTimeout(Heartbeat.readTimeoutMillis());
+                socket.setKeepAlive(true);
+                ClientSession session = new ClientSession(socket, db, capture);
+                session.limits = limiter.newSession();
                 clients.add(session);
+                Metrics.counter("expensedash_sessions_total").increment();
                 System.out.println("[Server] Client connected: " + socket.getInetAddress());
                 new Thread(() -> handleClient(session)).start();
             }
@@ -36,218 +122,818 @@ public class ServerMain {
     }
 
     private static void handleClient(ClientSession session) {
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(session.socket.getInputStream()));
-             PrintWriter pw = new PrintWriter(new OutputStreamWriter(session.socket.getOutputStream()), true)) {
-
+        FieldCursor args = new FieldCursor();
+        RequestHeader header = new RequestHeader();
+        try {
             String line;
-            while ((line = br.readLine()) != null) {
-
-                // ───────────────────────────────
-                // SNAPSHOT REQUEST
-                // ───────────────────────────────
-                if (line.equals("REQUEST_SNAPSHOT")) {
-                    if (session.username != null) sendSnapshot(pw, session.db, session.username);
-                    else pw.println("SNAPSHOT_ERR|User not logged in");
+            while ((line = session.in.readLine()) != null) {
+                session.lastRead = System.nanoTime();
+                // Heartbeats (see Heartbeat): answered here, never dispatched or rate-limited
+                if (line.equals("PING")) {
+                    session.sendUntagged("PONG");
                     continue;
                 }
-
-                // ───────────────────────────────
-                // REGISTER / LOGIN
-                // ───────────────────────────────
-                if (line.startsWith("REGISTER|")) {
-                    String[] p = line.split("\\|", 3);
-                    try {
-                        boolean ok = session.db.registerUser(p[1], p[2]);
-                        pw.println(ok ? "REGISTER_OK" : "REGISTER_DUP");
-                    } catch (Exception e) {
-                        pw.println("REGISTER_ERR|" + e.getMessage());
+                if (line.equals("PONG")) continue;
+                // Optional correlation header: "@<id>|COMMAND|..." → replies are "@<id>|..." + "@<id>|DONE"
+                // "@<id>:<key>|" also carries an idempotency key for mutations that may be retried
+                int opStart = header.parse(line);
+                if (opStart < 0) continue;
+                session.replyTag = header.tag;
+                session.idempotencyKey = header.key;
+                args.reset(line, opStart);
+                try {
+                    CommandHandler<ClientSession> handler = COMMANDS.lookup(args);
+                    if (handler != null) {
+                        handler.handle(session, args);
+                    } else {
+                        Metrics.counter("expensedash_commands_unknown_total").increment();
+                        if (session.replyTag != null) session.send("ERR|" + args.opcode() + "|Unknown command");
                     }
-                    continue;
-                }
-
-                if (line.startsWith("LOGIN|")) {
-                    String[] p = line.split("\\|", 3);
-                    try {
-                        boolean ok = session.db.validateUser(p[1], p[2]);
-                        if (ok) {
-                            session.username = p[1];
-                            pw.println("LOGIN_OK");
-                            System.out.println("[Server] User logged in: " + session.username);
-                            sendSnapshot(pw, session.db, session.username);
-                        } else {
-                            pw.println("LOGIN_FAIL");
-                        }
-                    } catch (Exception e) {
-                        pw.println("LOGIN_ERR|" + e.getMessage());
+                } catch (RateLimiter.Throttled t) {
+                    skipBody(session, args.opcode());
+                    session.send("THROTTLED|" + t.retryAfterMillis);
+                } catch (RuntimeException e) {
+                    // malformed arguments: report instead of dropping the connection
+                    Metrics.counter("expensedash_command_errors_total", "op", args.opcode()).increment();
+                    session.send("ERR|" + args.opcode() + "|" + e.getMessage());
+                } finally {
+                    if (session.replyTag != null) {
+                        session.send("DONE");
+                        session.replyTag = null;
                     }
-                    continue;
+                    session.idempotencyKey = null;
                 }
+            }
+        } catch (SocketTimeoutException e) {
+            System.out.println("[Server] No heartbeat for " + Heartbeat.IDLE_TIMEOUT_SECONDS + " s, dropping " + Heartbeat.describe(session));
+            Heartbeat.REAPED_IDLE.increment();
+        } catch (Exception e) {
+            System.out.println("[Server] Client disconnected: " + e.getMessage());
+        } finally {
+            clients.remove(session);
+            if (session.state != null) session.state.detach(session);
+            session.close();
+        }
+    }
 
-                // ───────────────────────────────
-                // CREATE GROUP (auto-member)
-                // ───────────────────────────────
-                if (line.startsWith("ADD_GROUP|")) {
-                    String[] p = line.split("\\|", 3);
-                    String name = p[1];
-                    String category = p.length >= 3 ? p[2] : "";
-                    try {
-                        if (session.db.groupNameExists(name)) {
-                            pw.println("ADD_GROUP_ERR|DUPLICATE");
-                        } else {
-                            int gid = session.db.addGroup(name, category, session.username);
-                            session.db.addMemberValidated(session.username, gid);
-
-                            // Notify all clients
-                            broadcast("GROUP|" + gid + "|" + name + "|" + category);
-                            pw.println("ADD_GROUP_OK|" + gid);
-                            sendSnapshot(pw, session.db, session.username);
-                        }
-                    } catch (Exception e) {
-                        pw.println("ADD_GROUP_ERR|" + e.getMessage());
-                    }
-                    continue;
-                }
+    // Refused commands never run: see RateLimiter, and handleClient for the THROTTLED reply
+    private static CommandHandler<ClientSession> limited(String op, CommandHandler<ClientSession> h) {
+        RequestScheduler.Priority p = RequestScheduler.classify(op);
+        return (session, args) -> {
+            limiter.check(session.limits, session.username, p);
+            h.handle(session, args);
+        };
+    }
 
-                // ───────────────────────────────
-                // ───────────────────────────────
-// SEARCH GROUPS (global search)
-// ───────────────────────────────
-                if (line.startsWith("SEARCH_GROUP|")) {
-                    String[] p = line.split("\\|", 2);
-                    String query = p.length >= 2 ? p[1] : "";
-                    try {
-                        List<Group> results = session.db.searchGroups(query); // ✅ searches all groups globally
-                        pw.println("SEARCH_BEGIN");
-                        for (Group g : results) {
-                            pw.println("SEARCH_RESULT|" + g.id + "|" + g.name + "|" + g.category);
-                        }
-                        pw.println("SEARCH_END");
-                    } catch (Exception e) {
-                        pw.println("SEARCH_ERR|" + e.getMessage());
-                    }
-                    continue;
+    // Innermost, so bulk commands queue for their class before taking an in-flight permit.
+    // A snapshot a handler asked for (snapshotDue) is sent after its permit is released,
+    // so commands waiting in the bulk queue never hold permits interactive ones need
+    private static CommandHandler<ClientSession> capped(String op, CommandHandler<ClientSession> h) {
+        if (SELF_ADMITTED.contains(op)) return h;
+        return (session, args) -> {
+            session.snapshotDue = false;
+            limiter.withPermit(() -> {
+                h.handle(session, args);
+                return null;
+            });
+            if (session.snapshotDue) {
+                session.snapshotDue = false;
+                bulkSnapshot(session::send, session, Map.of());
+            }
+        };
+    }
+
+    // A refused BATCH_BEGIN or IMPORT_BEGIN is still followed by its lines; drop them
+    private static void skipBody(ClientSession session, String op) throws IOException {
+        String end = BODY_END.get(op);
+        if (end == null) return;
+        String line;
+        while ((line = session.in.readLine()) != null && !line.equals(end)) {
+            // discard
+        }
+    }
+
+    // Every command waits for a slot of its class in the RequestScheduler
+    private static CommandHandler<ClientSession> scheduled(String op, CommandHandler<ClientSession> h) {
+        RequestScheduler.Priority p = RequestScheduler.classify(op);
+        if (SELF_ADMITTED.contains(op)) return h;
+        return (session, args) -> scheduler.call(p, () -> {
+            h.handle(session, args);
+            return null;
+        });
+    }
+
+    // Registry decorator: per-command latency histogram (looked up once at registration)
+    // and a JFR event, which the JIT removes entirely while no recording is running
+    private static CommandHandler<ClientSession> timed(String op, CommandHandler<ClientSession> h) {
+        Histogram latency = Metrics.timer("expensedash_command_seconds", "op", op);
+        return (session, args) -> {
+            CommandEvent event = new CommandEvent();
+            event.begin();
+            long start = System.nanoTime();
+            try {
+                h.handle(session, args);
+            } finally {
+                latency.recordSince(start);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.opcode = op;
+                    event.user = session.username;
+                    event.tagged = session.replyTag != null;
+                    event.commit();
                 }
+            }
+        };
+    }
 
+    // ───────────────────────────────
+    // STATS (admin only): every metric, one "STATS|line" per line
+    // ───────────────────────────────
+    private static void onStats(ClientSession session, FieldCursor args) {
+        if (session.username == null || !ADMINS.contains(session.username)) {
+            session.send("STATS_ERR|Not authorized");
+            return;
+        }
+        String text = Metrics.render() + lanes.stats();
+        for (String line : text.split("\n")) session.send("STATS|" + line);
+        session.send("STATS_END");
+    }
 
-                // ───────────────────────────────
-                // JOIN GROUP (instant join)
-                // ───────────────────────────────
-                if (line.startsWith("JOIN_GROUP|")) {
-                    int groupId = Integer.parseInt(line.split("\\|")[1]);
-                    try {
-                        if (!session.db.isMemberInGroup(session.username, groupId)) {
-                            session.db.addMemberValidated(session.username, groupId);
-                        }
-                        Group g = session.db.getGroupById(groupId);
+    // ───────────────────────────────
+    // REPORT|by|from|to|limit: spending totals from the in-memory columns
+    // by = payer|category|month|group; bounds "*", "YYYY", "YYYY-MM" or "YYYY-MM-DD" (to exclusive).
+    // Admins see every group, everyone else the groups they belong to.
+    // ───────────────────────────────
+    private static void onReport(ClientSession session, FieldCursor args) {
+        if (session.username == null) {
+            session.send("REPORT_ERR|User not logged in");
+            return;
+        }
+        try {
+            String byName = args.next();
+            ReportEngine.By by;
+            try {
+                by = ReportEngine.By.valueOf(byName.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException unknown) {
+                session.send("REPORT_ERR|Unknown grouping " + byName);
+                return;
+            }
+            long from = ReportEngine.bound(args.hasNext() ? args.next() : "*", false);
+            long to = ReportEngine.bound(args.hasNext() ? args.next() : "*", true);
+            int limit = args.hasNext() ? args.nextInt() : 0;
+            boolean[] allowed = null;
+            if (!ADMINS.contains(session.username)) {
+                List<Integer> mine = session.db.getGroupsForUser(session.username);
+                allowed = new boolean[mine.stream().mapToInt(Integer::intValue).max().orElse(0) + 1];
+                for (int gid : mine) allowed[gid] = true;
+            }
+            long start = System.nanoTime();
+            ReportEngine.Report r = reports.run(by, from, to, allowed, limit);
+            session.send("REPORT_BEGIN|" + by.name().toLowerCase(Locale.ROOT) + "|" + r.scanned() + "|"
+                    + (System.nanoTime() - start) / 1000);
+            for (ReportEngine.Line line : r.lines())
+                session.send("REPORT_ROW|" + line.key() + "|" + line.total().toPlainString() + "|" + line.count());
+            session.send("REPORT_END|" + r.lines().size());
+        } catch (Exception e) {
+            session.send("REPORT_ERR|" + e.getMessage());
+        }
+    }
 
-                        broadcast("MEMBER|" + session.username + "|" + groupId);
-                        pw.println("JOIN_OK|" + groupId + "|" + g.name);
-                        sendSnapshot(pw, session.db, session.username);
-                    } catch (Exception e) {
-                        pw.println("JOIN_ERR|" + e.getMessage());
-                    }
-                    continue;
+    // ───────────────────────────────
+    // USER SUMMARY: the user's position across all of their groups
+    // USER_SUMMARY|paid|owed|receivable, one USER_SUMMARY_GROUP|gid|paid|owed|receivable
+    // per group, then USER_SUMMARY_END|groups. The first line is also pushed whenever
+    // a group of the user changes.
+    // ───────────────────────────────
+    private static void onUserSummary(ClientSession session, FieldCursor args) {
+        if (session.username == null) {
+            session.send("USER_SUMMARY_ERR|User not logged in");
+            return;
+        }
+        try {
+            List<Database.GroupBalance> groups = session.db.userBalances(session.username);
+            session.send(summaryLine(groups));
+            for (var g : groups)
+                session.send("USER_SUMMARY_GROUP|" + g.groupId() + "|" + g.paidCents() / 100.0
+                        + "|" + g.owedCents() / 100.0 + "|" + g.receivableCents() / 100.0);
+            session.send("USER_SUMMARY_END|" + groups.size());
+        } catch (Exception e) {
+            session.send("USER_SUMMARY_ERR|" + e.getMessage());
+        }
+    }
+
+    private static String summaryLine(List<Database.GroupBalance> groups) {
+        long paid = 0, owed = 0, receivable = 0; // cents, so the totals add up exactly
+        for (var g : groups) {
+            paid += g.paidCents();
+            owed += g.owedCents();
+            receivable += g.receivableCents();
+        }
+        return "USER_SUMMARY|" + paid / 100.0 + "|" + owed / 100.0 + "|" + receivable / 100.0;
+    }
+
+    // Call on the group's lane after the change's broadcast: sends each connected
+    // member of the group their new USER_SUMMARY line, as an event of their own
+    private static void pushSummaries(Database db, int groupId) throws Exception {
+        Set<String> members = new HashSet<>();
+        for (var m : db.getMembersForGroup(groupId)) members.add(m.name);
+        Map<String, String> lines = new HashMap<>();
+        for (ClientSession c : clients) {
+            if (c.state != null || c.username == null || !members.contains(c.username)) continue;
+            c.offer(summaryFor(db, c.username, lines));
+        }
+        for (SessionRegistry.State s : sessions.all()) {
+            if (members.contains(s.username)) s.publish(summaryFor(db, s.username, lines));
+        }
+    }
+
+    private static String summaryFor(Database db, String username, Map<String, String> cache) throws Exception {
+        String line = cache.get(username);
+        if (line == null) {
+            line = summaryLine(db.userBalances(username));
+            cache.put(username, line);
+        }
+        return line;
+    }
+
+    // ───────────────────────────────
+    // SNAPSHOT REQUEST
+    // ───────────────────────────────
+    // Optional args "gid:version|..." name groups the client already has cached.
+    // Snapshots are bulk work. An untagged request is queued without holding up the
+    // session's next commands, and further untagged requests that arrive while it still
+    // waits are folded into it: it runs once, with the newest cached versions.
+    private static void onRequestSnapshot(ClientSession session, FieldCursor args) throws Exception {
+        if (session.username == null) {
+            session.send("SNAPSHOT_ERR|User not logged in");
+            return;
+        }
+        Map<Integer, String> known = new HashMap<>();
+        while (args.hasNext()) {
+            String f = args.next();
+            int colon = f.indexOf(':');
+            if (colon > 0) known.put(Integer.parseInt(f, 0, colon, 10), f.substring(colon + 1));
+        }
+        if (session.replyTag != null) {
+            bulkSnapshot(session::send, session, known);
+            return;
+        }
+        if (session.pendingSnapshot.getAndSet(known) != null) {
+            SNAPSHOTS_COALESCED.increment();
+            return;
+        }
+        scheduler.submitBulk(() -> {
+            Map<Integer, String> latest = session.pendingSnapshot.getAndSet(null);
+            if (latest == null || session.isClosed()) return null;
+            try {
+                limiter.withPermit(() -> {
+                    sendSnapshot(session::sendUntagged, session.db, session.username, latest);
+                    return null;
+                });
+            } catch (RateLimiter.Throttled t) {
+                session.sendUntagged("THROTTLED|" + t.retryAfterMillis);
+            }
+            return null;
+        });
+    }
+
+    // Snapshot admitted as bulk work, then holding an in-flight permit like any command
+    private static void bulkSnapshot(Consumer<String> out, ClientSession session, Map<Integer, String> known) throws Exception {
+        scheduler.call(RequestScheduler.Priority.BULK, () -> limiter.withPermit(() -> {
+            sendSnapshot(out, session.db, session.username, known);
+            return null;
+        }));
+    }
+
+    // ───────────────────────────────
+    // REGISTER / LOGIN
+    // ───────────────────────────────
+    private static void onRegister(ClientSession session, FieldCursor args) {
+        String user = args.next();
+        String hash = args.rest();
+        try {
+            boolean ok = session.db.registerUser(user, hash);
+            session.send(ok ? "REGISTER_OK" : "REGISTER_DUP");
+        } catch (Exception e) {
+            session.send("REGISTER_ERR|" + e.getMessage());
+        }
+    }
+
+    // LOGIN|user|hash[|NOSNAPSHOT]: clients that request their own (cached) snapshot skip the default one
+    private static void onLogin(ClientSession session, FieldCursor args) {
+        String user = args.next();
+        String hash = args.next();
+        boolean snapshot = !"NOSNAPSHOT".equals(args.restOr(""));
+        try {
+            boolean ok = session.db.validateUser(user, hash);
+            if (ok) {
+                if (session.state != null) session.state.detach(session);
+                session.username = user;
+                session.state = sessions.open(session);
+                session.send("LOGIN_OK|" + session.state.token);
+                System.out.println("[Server] User logged in: " + session.username);
+                session.snapshotDue = snapshot;
+            } else {
+                session.send("LOGIN_FAIL");
+            }
+        } catch (Exception e) {
+            session.send("LOGIN_ERR|" + e.getMessage());
+        }
+    }
+
+    // ───────────────────────────────
+    // RESUME (reconnect without a full re-download)
+    // ───────────────────────────────
+    private static void onResume(ClientSession session, FieldCursor args) throws Exception {
+        String token = args.next();
+        long lastSeq = args.nextLong();
+        SessionRegistry.State state = sessions.get(token);
+        if (state == null) {
+            session.send("RESUME_FAIL|Session expired");
+            return;
+        }
+        if (session.state != null && session.state != state) session.state.detach(session);
+        session.username = state.username;
+        session.state = state;
+        session.send("RESUME_OK|" + state.seq());
+        if (!state.resume(session, lastSeq)) {
+            // Missed more than the ring holds: fall back to a full snapshot
+            session.send("RESUME_FULL");
+            session.snapshotDue = true;
+        }
+        System.out.println("[Server] Session resumed: " + session.username + " after seq " + lastSeq);
+    }
+
+    // ───────────────────────────────
+    // CREATE GROUP (auto-member)
+    // ───────────────────────────────
+    private static void onAddGroup(ClientSession session, FieldCursor args) {
+        String name = args.next();
+        String category = args.restOr("");
+        try {
+            if (session.db.groupNameExists(name)) {
+                session.send("ADD_GROUP_ERR|DUPLICATE");
+            } else {
+                int gid = session.db.addGroup(name, category, session.username);
+                session.db.addMemberValidated(session.username, gid);
+
+                // Notify all clients
+                broadcast("GROUP|" + gid + "|" + name + "|" + category);
+                session.send("ADD_GROUP_OK|" + gid);
+                session.snapshotDue = true;
+            }
+        } catch (Exception e) {
+            session.send("ADD_GROUP_ERR|" + e.getMessage());
+        }
+    }
+
+    // ───────────────────────────────
+    // SEARCH GROUPS (global search)
+    // ───────────────────────────────
+    private static void onSearchGroup(ClientSession session, FieldCursor args) {
+        String query = args.restOr("");
+        try {
+            List<Group> results = session.db.searchGroups(query); // ✅ searches all groups globally
+            session.send("SEARCH_BEGIN");
+            for (Group g : results) {
+                session.send("SEARCH_RESULT|" + g.id + "|" + g.name + "|" + g.category);
+            }
+            session.send("SEARCH_END");
+        } catch (Exception e) {
+            session.send("SEARCH_ERR|" + e.getMessage());
+        }
+    }
+
+    // ───────────────────────────────
+    // JOIN GROUP (instant join)
+    // ───────────────────────────────
+    private static void onJoinGroup(ClientSession session, int groupId, FieldCursor args) {
+        try {
+            Group g = lanes.call(groupId, () -> {
+                Group group = session.db.getGroupById(groupId); // throws for an unknown id
+                // Announce only a membership that was actually added
+                if (session.db.addMemberValidated(session.username, groupId) >= 0) {
+                    broadcast("MEMBER|" + session.username + "|" + groupId);
                 }
+                return group;
+            });
+            session.send("JOIN_OK|" + groupId + "|" + g.name);
+            session.snapshotDue = true;
+        } catch (Exception e) {
+            session.send("JOIN_ERR|" + e.getMessage());
+        }
+    }
 
-                // ───────────────────────────────
-                // ADD EXPENSE (split equally)
-                // ───────────────────────────────
-                if (line.startsWith("ADD_EXPENSE|")) {
-                    String[] p = line.split("\\|", 5);
-                    int groupId = Integer.parseInt(p[1]);
-                    String payer = p[2];
-                    double amount = Double.parseDouble(p[3]);
-                    String desc = p[4];
-                    try {
-                        int expId = session.db.addExpense(groupId, payer, amount, desc);
-                        var members = session.db.getMembersForGroup(groupId);
-                        int n = members.isEmpty() ? 1 : members.size();
-                        double per = Math.round((amount / n) * 100.0) / 100.0;
-
-                        for (var m : members) {
-                            session.db.addSplit(expId, m.id, per);
-                        }
+    // ───────────────────────────────
+    // ADD EXPENSE (split equally)
+    // ───────────────────────────────
+    private static void onAddExpense(ClientSession session, int groupId, FieldCursor args) {
+        String payer = args.next();
+        double amount = args.nextDouble();
+        String desc = args.rest();
+        String key = session.idempotencyKey;
+        try {
+            FieldCursor.checkField("Description", desc);
+            // Insert + broadcast on the group's lane so EXPENSE/SPLIT lines never interleave
+            lanes.call(groupId, () -> {
+                Database.AddedExpense added = session.db.addExpenseOnce(groupId, payer, amount, desc, key);
+                int expId = added.expenseId();
+                // Reply before the broadcast: the sender learns the real id from the reply and
+                // drops its provisional row when this broadcast arrives. Queued without
+                // blocking, since a full outbox must not hold up the lane
+                session.reply("ADD_EXPENSE_OK|" + expId);
+                if (added.duplicate()) return null; // already applied and broadcast
 
-                        // Broadcast new expense to all clients
-                        broadcast("EXPENSE|" + expId + "|" + groupId + "|" + payer + "|" + amount + "|" + desc);
-                        for (var sp : session.db.getSplitsForExpense(expId)) {
-                            broadcast("SPLIT|" + expId + "|" + sp.memberId + "|" + sp.amount);
-                        }
-                    } catch (Exception e) {
-                        pw.println("ADD_EXPENSE_ERR|" + e.getMessage());
-                    }
+                broadcastExpense(session.db, expId, groupId, payer, amount, desc);
+                pushSummaries(session.db, groupId);
+                return null;
+            });
+        } catch (Exception e) {
+            session.send("ADD_EXPENSE_ERR|" + e.getMessage());
+        }
+    }
+
+    // Call on the group's lane so EXPENSE/SPLIT lines of concurrent inserts never interleave
+    private static void broadcastExpense(Database db, int expId, int groupId, String payer, double amount, String desc) throws Exception {
+        broadcast("EXPENSE|" + expId + "|" + groupId + "|" + payer + "|" + amount + "|" + desc);
+        for (var sp : db.getSplitsForExpense(expId)) {
+            broadcast("SPLIT|" + expId + "|" + sp.memberId + "|" + sp.amount);
+        }
+    }
+
+    // ───────────────────────────────
+    // OFFLINE BATCH (queued mutations, one transaction per group)
+    // BATCH_BEGIN|count, then "<key>|ADD_EXPENSE|gid|payer|amount|desc" lines, then BATCH_END.
+    // Replies BATCH_ITEM|key|expenseId per applied item and BATCH_OK|applied|duplicates.
+    // ───────────────────────────────
+    private static void onBatch(ClientSession session, FieldCursor args) {
+        List<Database.NewExpense> items = new ArrayList<>();
+        String error = session.username == null ? "Not logged in" : null;
+        FieldCursor item = new FieldCursor();
+        try {
+            String line;
+            while ((line = session.in.readLine()) != null && !line.equals("BATCH_END")) {
+                if (error != null) continue; // keep draining so the stream stays in sync
+                if (items.size() == BATCH_MAX) {
+                    error = "Batch larger than " + BATCH_MAX;
                     continue;
                 }
+                try {
+                    item.reset(line);
+                    String key = item.opcode();
+                    item.reset(line, item.opEnd() + 1);
+                    if (!item.opcode().equals("ADD_EXPENSE")) {
+                        error = "Unsupported in batch: " + item.opcode();
+                        continue;
+                    }
+                    items.add(new Database.NewExpense(key.isEmpty() ? null : key,
+                            item.nextInt(), item.next(), item.nextDouble(), FieldCursor.checkField("Description", item.rest())));
+                } catch (RuntimeException e) {
+                    error = "Bad item " + (items.size() + 1) + ": " + e.getMessage();
+                }
+            }
+            if (error != null) {
+                session.send("BATCH_ERR|" + error);
+                return;
+            }
+
+            // Each group's items are applied and broadcast on its lane, like ADD_EXPENSE,
+            // so they never interleave with that group's other writes
+            Map<Integer, List<Database.NewExpense>> byGroup = new LinkedHashMap<>();
+            for (Database.NewExpense x : items) byGroup.computeIfAbsent(x.groupId(), g -> new ArrayList<>()).add(x);
+            // The body is read: only now take an in-flight permit
+            int duplicates = limiter.withPermit(() -> applyBatch(session, byGroup));
+            session.send("BATCH_OK|" + (items.size() - duplicates) + "|" + duplicates);
+            System.out.println("[Server] Batch from " + session.username + ": " + items.size() + " items, " + duplicates + " duplicates");
+        } catch (RateLimiter.Throttled t) {
+            session.send("THROTTLED|" + t.retryAfterMillis); // nothing applied; body already read
+        } catch (Exception e) {
+            session.send("BATCH_ERR|" + e.getMessage());
+        }
+    }
 
-                // ───────────────────────────────
-                // SETTLE GROUP
-                // ───────────────────────────────
-                if (line.startsWith("SETTLE|")) {
-                    int gid = Integer.parseInt(line.split("\\|")[1]);
-                    try {
-                        session.db.settleGroup(gid);
-                        broadcast("RESET|" + gid);
-                    } catch (Exception e) {
-                        pw.println("SETTLE_ERR|" + e.getMessage());
+    /** @return how many items were duplicates */
+    private static int applyBatch(ClientSession session, Map<Integer, List<Database.NewExpense>> byGroup) throws Exception {
+        int duplicates = 0;
+        for (var entry : byGroup.entrySet()) {
+            int gid = entry.getKey();
+            List<Database.NewExpense> part = entry.getValue();
+            duplicates += lanes.call(gid, () -> {
+                List<Database.AddedExpense> results = session.db.addExpensesOnce(part);
+                int dups = 0;
+                for (int i = 0; i < part.size(); i++) {
+                    String key = part.get(i).key();
+                    session.reply("BATCH_ITEM|" + (key == null ? "" : key) + "|" + results.get(i).expenseId());
+                }
+                for (int i = 0; i < part.size(); i++) {
+                    Database.AddedExpense r = results.get(i);
+                    if (r.duplicate()) {
+                        dups++;
+                        continue;
                     }
+                    Database.NewExpense x = part.get(i);
+                    broadcastExpense(session.db, r.expenseId(), gid, x.payer(), x.amount(), x.desc());
                 }
+                if (dups < part.size()) pushSummaries(session.db, gid);
+                return dups;
+            });
+        }
+        return duplicates;
+    }
+
+    // ───────────────────────────────
+    // BULK IMPORT (CSV rows until IMPORT_END)
+    // ───────────────────────────────
+    private static void onImport(ClientSession session, int groupId, FieldCursor args) {
+        ExpenseImporter rows = new ExpenseImporter(session.in, groupId);
+        try {
+            if (session.username == null || !session.db.isMemberInGroup(session.username, groupId)) {
+                rows.drain();
+                session.send("IMPORT_ERR|Not a member of group " + groupId);
+                return;
             }
+            // Each chunk is read off the socket first, then takes a bulk slot and a permit for
+            // its transaction only. Once one chunk is in, the rest wait rather than being shed
+            boolean[] started = {false};
+            int count = session.db.importExpenses(groupId, rows, IMPORT_CHUNK, tx ->
+                    scheduler.call(RequestScheduler.Priority.BULK, () -> {
+                        Void done = started[0] ? limiter.withPermitWaiting(tx) : limiter.withPermit(tx);
+                        started[0] = true;
+                        return done;
+                    }));
+            rows.drain();
+            for (String r : rows.rejections()) session.send("IMPORT_REJECTED|" + r);
+            session.send("IMPORT_OK|" + count + "|" + rows.rejected());
+            System.out.println("[Server] Imported " + count + " expenses into group " + groupId);
 
+            // One consolidated event instead of per-row EXPENSE/SPLIT lines
+            if (count > 0) lanes.call(groupId, () -> {
+                broadcast("IMPORTED|" + groupId + "|" + count);
+                pushSummaries(session.db, groupId);
+                return null;
+            });
+        } catch (RateLimiter.Throttled t) {
+            rows.drain(); // shed before its first chunk: nothing was imported
+            session.send("THROTTLED|" + t.retryAfterMillis);
         } catch (Exception e) {
-            System.out.println("[Server] Client disconnected: " + e.getMessage());
-        } finally {
-            clients.remove(session);
+            rows.drain();
+            session.send("IMPORT_ERR|" + e.getMessage());
         }
     }
 
     // ───────────────────────────────
-    // SEND USER SNAPSHOT
+    // EXPORT LEDGER (streamed, csv|json)
     // ───────────────────────────────
-    private static void sendSnapshot(PrintWriter pw, Database db, String username) {
+    private static void onExport(ClientSession session, int groupId, FieldCursor args) {
+        String format = args.restOr(LedgerExporter.CSV);
         try {
-            pw.println("SNAPSHOT_BEGIN");
-            List<Integer> groupIds = db.getGroupsForUser(username);
+            if (session.username == null || !session.db.isMemberInGroup(session.username, groupId)) {
+                session.send("EXPORT_ERR|Not a member of group " + groupId);
+                return;
+            }
+            new LedgerExporter(session.db).export(groupId, format, session::send);
+        } catch (Exception e) {
+            session.send("EXPORT_ERR|" + e.getMessage());
+        }
+    }
 
-            for (int gid : groupIds) {
-                Group g = db.getGroupById(gid);
-                pw.println("GROUP|" + g.id + "|" + g.name + "|" + g.category);
+    // ───────────────────────────────
+    // EXPENSES IN A TIME RANGE (open and settled, oldest first)
+    // EXPENSES_RANGE|gid|from|to, bounds as "YYYY-MM[-DD[ HH:MM:SS]]", to exclusive
+    // ───────────────────────────────
+    private static void onExpensesRange(ClientSession session, int groupId, FieldCursor args) {
+        try {
+            String from = args.next(), to = args.next();
+            if (session.username == null || !session.db.isMemberInGroup(session.username, groupId)) {
+                session.send("RANGE_ERR|Not a member of group " + groupId);
+                return;
+            }
+            session.send("RANGE_BEGIN|" + groupId);
+            int count = session.db.expensesInRange(groupId, from, to, (id, createdAt, payer, amount, desc, settled) ->
+                    session.send("RANGE_ROW|" + id + "|" + createdAt + "|" + payer + "|" + amount + "|" + desc + "|" + (settled ? 1 : 0)));
+            session.send("RANGE_END|" + count);
+        } catch (Exception e) {
+            session.send("RANGE_ERR|" + e.getMessage());
+        }
+    }
 
-                for (var m : db.getMembersForGroup(gid))
-                    pw.println("MEMBER|" + m.id + "|" + m.name + "|" + gid);
+    // ───────────────────────────────
+    // MONTHLY ROLLUP (from expense_rollups, never a scan of expenses)
+    // ROLLUP|gid|month|by, month "YYYY-MM", "YYYY" or "*"; by payer (default) or month
+    // ───────────────────────────────
+    private static void onRollup(ClientSession session, int groupId, FieldCursor args) {
+        try {
+            String month = args.next();
+            String by = args.restOr("by=payer");
+            if (!month.equals("*") && !month.matches("\\d{4}(-\\d{2})?")) {
+                session.send("ROLLUP_ERR|Bad month " + month);
+                return;
+            }
+            if (!by.equals("by=payer") && !by.equals("by=month")) {
+                session.send("ROLLUP_ERR|Bad grouping " + by);
+                return;
+            }
+            if (session.username == null || !session.db.isMemberInGroup(session.username, groupId)) {
+                session.send("ROLLUP_ERR|Not a member of group " + groupId);
+                return;
+            }
+            var rows = session.db.rollup(groupId, month.equals("*") ? "" : month, by.equals("by=payer"));
+            session.send("ROLLUP_BEGIN|" + groupId + "|" + month);
+            for (var r : rows) session.send("ROLLUP_ROW|" + r.key() + "|" + r.total() + "|" + r.count());
+            session.send("ROLLUP_END|" + groupId);
+        } catch (Exception e) {
+            session.send("ROLLUP_ERR|" + e.getMessage());
+        }
+    }
 
-                for (var e : db.getExpensesForGroup(gid)) {
-                    pw.println("EXPENSE|" + e.id + "|" + gid + "|" + e.payer + "|" + e.amount + "|" + e.desc);
-                    for (var sp : db.getSplitsForExpense(e.id))
-                        pw.println("SPLIT|" + e.id + "|" + sp.memberId + "|" + sp.amount);
-                }
+    // ───────────────────────────────
+    // ARCHIVED|gid: what archiving and settling have moved out of the group so far
+    // Replies ARCHIVED|gid|count|total|lastArchivedAt (empty if never)
+    // ───────────────────────────────
+    private static void onArchived(ClientSession session, int groupId, FieldCursor args) {
+        try {
+            if (session.username == null || !session.db.isMemberInGroup(session.username, groupId)) {
+                session.send("ARCHIVED_ERR|Not a member of group " + groupId);
+                return;
             }
+            var a = session.db.archivedTotals(groupId);
+            session.send("ARCHIVED|" + groupId + "|" + a.count() + "|" + a.total() + "|"
+                    + (a.lastArchivedAt() == null ? "" : a.lastArchivedAt()));
+        } catch (Exception e) {
+            session.send("ARCHIVED_ERR|" + e.getMessage());
+        }
+    }
 
-            pw.println("SNAPSHOT_END");
+    // ───────────────────────────────
+    // SETTLE GROUP
+    // ───────────────────────────────
+    private static void onSettle(ClientSession session, int gid, FieldCursor args) {
+        try {
+            lanes.call(gid, () -> {
+                session.db.settleGroup(gid);
+                broadcast("RESET|" + gid);
+                pushSummaries(session.db, gid);
+                return null;
+            });
         } catch (Exception e) {
-            pw.println("SNAPSHOT_ERR|" + e.getMessage());
+            session.send("SETTLE_ERR|" + e.getMessage());
         }
     }
 
     // ───────────────────────────────
-    // BROADCAST TO ALL CLIENTS
+    // SEND USER SNAPSHOT
+    // Groups whose version matches the client's cached one are sent as GROUP_UNCHANGED;
+    // every other group is sent in full followed by GROUP_VERSION. For users in several
+    // groups the segments are read in parallel, but always written in group order.
     // ───────────────────────────────
-    private static void broadcast(String msg) {
-        for (ClientSession c : clients) {
-            try {
-                PrintWriter pw = new PrintWriter(new OutputStreamWriter(c.socket.getOutputStream()), true);
-                pw.println(msg);
-            } catch (Exception ignored) {}
+    private record Segment(boolean unchanged, List<String> lines) {}
+
+    // One group's part of a snapshot: GROUP_UNCHANGED if the client's cached version is
+    // current, else the group in full followed by GROUP_VERSION. Returns true if unchanged.
+    private static boolean writeGroup(Consumer<String> out, Database db, int gid, String knownVersion) throws Exception {
+        // Read the version first: a concurrent change makes it stale, never too new
+        String version = db.groupVersion(gid);
+        if (version.equals(knownVersion)) {
+            out.accept("GROUP_UNCHANGED|" + gid);
+            return true;
+        }
+        Group g = db.getGroupById(gid);
+        out.accept("GROUP|" + g.id + "|" + g.name + "|" + g.category);
+
+        for (var m : db.getMembersForGroup(gid))
+            out.accept("MEMBER|" + m.id + "|" + m.name + "|" + gid);
+
+        for (var e : db.getExpensesForGroup(gid)) {
+            out.accept("EXPENSE|" + e.id + "|" + gid + "|" + e.payer + "|" + e.amount + "|" + e.desc);
+            for (var sp : db.getSplitsForExpense(e.id))
+                out.accept("SPLIT|" + e.id + "|" + sp.memberId + "|" + sp.amount);
+        }
+        out.accept("GROUP_VERSION|" + gid + "|" + version);
+        return false;
+    }
+
+    private static ExecutorService snapshotPool() {
+        AtomicInteger n = new AtomicInteger();
+        return Executors.newFixedThreadPool(SNAPSHOT_THREADS, r -> {
+            Thread t = new Thread(r, "snapshot-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Public so the benchmarks can serialise snapshots into a null sink
+    public static void sendSnapshot(Consumer<String> out, Database db, String username) {
+        sendSnapshot(out, db, username, Map.of());
+    }
+
+    public static void sendSnapshot(Consumer<String> target, Database db, String username, Map<Integer, String> known) {
+        SnapshotEvent event = new SnapshotEvent();
+        event.begin();
+        LineCounter counter = event.isEnabled() ? new LineCounter(target) : null;
+        Consumer<String> out = counter != null ? counter : target;
+        int groups = 0, unchanged = 0;
+        try {
+            out.accept("SNAPSHOT_BEGIN");
+            List<Integer> groupIds = db.getGroupsForUser(username);
+
+            if (SNAPSHOT_POOL == null || groupIds.size() < 2) {
+                for (int gid : groupIds) {
+                    groups++;
+                    if (writeGroup(out, db, gid, known.get(gid))) unchanged++;
+                }
+            } else {
+                // Segments are built concurrently, each on its own connections, and written
+                // in group order; at most two per pool thread wait ahead of the socket
+                Deque<Future<Segment>> ahead = new ArrayDeque<>();
+                Iterator<Integer> next = groupIds.iterator();
+                try {
+                    while (next.hasNext() || !ahead.isEmpty()) {
+                        while (next.hasNext() && ahead.size() < 2 * SNAPSHOT_THREADS) {
+                            int gid = next.next();
+                            ahead.add(SNAPSHOT_POOL.submit(() -> {
+                                List<String> lines = new ArrayList<>();
+                                boolean same = writeGroup(lines::add, db, gid, known.get(gid));
+                                return new Segment(same, lines);
+                            }));
+                        }
+                        Segment seg;
+                        try {
+                            seg = ahead.poll().get();
+                        } catch (ExecutionException ex) {
+                            throw ex.getCause() instanceof Exception cause ? cause : ex;
+                        }
+                        groups++;
+                        if (seg.unchanged()) unchanged++;
+                        seg.lines().forEach(out);
+                    }
+                } finally {
+                    for (Future<Segment> f : ahead) f.cancel(false);
+                }
+            }
+
+            out.accept("SNAPSHOT_END");
+        } catch (Exception e) {
+            out.accept("SNAPSHOT_ERR|" + e.getMessage());
+        }
+        event.end();
+        if (counter != null && event.shouldCommit()) {
+            event.user = username;
+            event.groups = groups;
+            event.unchangedGroups = unchanged;
+            event.lines = counter.lines;
+            event.bytes = counter.bytes;
+            event.commit();
         }
     }
 
-    private static class ClientSession {
-        Socket socket;
-        Database db;
-        String username;
+    /** Snapshot sink that counts lines and UTF-8 bytes for {@link SnapshotEvent}. */
+    private static final class LineCounter implements Consumer<String> {
+        private final Consumer<String> target;
+        long lines, bytes;
+
+        LineCounter(Consumer<String> target) {
+            this.target = target;
+        }
+
+        @Override
+        public void accept(String line) {
+            lines++;
+            bytes += 1; // newline
+            for (int i = 0; i < line.length(); i++) {
+                char ch = line.charAt(i);
+                bytes += ch < 0x80 ? 1 : ch < 0x800 ? 2 : Character.isSurrogate(ch) ? 2 : 3;
+            }
+            target.accept(line);
+        }
+    }
 
-        ClientSession(Socket socket, Database db) {
-            this.socket = socket;
-            this.db = db;
+    // ───────────────────────────────
+    // BROADCAST TO ALL CLIENTS (non-blocking, per-session outbox)
+    // Logged-in sessions get "^seq|msg" and keep it for RESUME, even while disconnected.
+    // ───────────────────────────────
+    private static void broadcast(String msg) {
+        BroadcastEvent event = new BroadcastEvent();
+        event.begin();
+        long start = System.nanoTime();
+        int fanout = 0;
+        for (ClientSession c : clients) {
+            if (c.state == null) {
+                c.offer(msg);
+                fanout++;
+            }
+        }
+        for (SessionRegistry.State s : sessions.all()) {
+            s.publish(msg);
+            fanout++;
+        }
+        BROADCAST_TIME.recordSince(start);
+        BROADCAST_FANOUT.record(fanout);
+        event.end();
+        if (event.shouldCommit()) {
+            int bar = msg.indexOf('|');
+            event.opcode = bar < 0 ? msg : msg.substring(0, bar);
+            event.recipients = fanout;
+            event.commit();
         }
     }
 }
@@ -0,0 +1,110 @@
+package com.expensedash.server;
+
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logged-in sessions that outlive their TCP connection.
+ *
+ * LOGIN issues a token. Every broadcast a session should see is numbered and kept in
+ * a bounded ring, whether or not a connection is currently attached. A client that
+ * reconnects sends RESUME|token|lastSeq and gets only what it missed. It only needs a
+ * full snapshot when the gap is larger than the ring.
+ *
+ * Tunables: expensedash.resume.ringSize (default 2048 events),
+ *           expensedash.resume.ttlSeconds (default 300, how long a detached session is kept).
+ */
+public class SessionRegistry {
+    private final int ringSize = Integer.getInteger("expensedash.resume.ringSize", 2048);
+    private final long ttlMillis = Long.getLong("expensedash.resume.ttlSeconds", 300) * 1000;
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    public SessionRegistry() {
+        ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+        reaper.scheduleWithFixedDelay(this::expire, 30, 30, TimeUnit.SECONDS);
+    }
+
+    /** Creates resumable state for a freshly logged-in connection. */
+    State open(ClientSession session) {
+        byte[] b = new byte[16];
+        random.nextBytes(b);
+        State s = new State(HexFormat.of().formatHex(b), session.username, ringSize);
+        s.attached = session;
+        states.put(s.token, s);
+        return s;
+    }
+
+    State get(String token) {
+        return states.get(token);
+    }
+
+    Iterable<State> all() {
+        return states.values();
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        states.values().removeIf(s -> s.isExpired(now, ttlMillis));
+    }
+
+    /** Server-side half of a resumable session. */
+    static final class State {
+        final String token;
+        final String username;
+        private final String[] ring;
+        private long seq;                // last sequence number issued
+        private ClientSession attached;  // null while the client is away
+        private long detachedAt;
+
+        State(String token, String username, int capacity) {
+            this.token = token;
+            this.username = username;
+            this.ring = new String[capacity];
+        }
+
+        /** Numbers {@code msg}, keeps it for replay and delivers it if a client is attached. */
+        synchronized void publish(String msg) {
+            long n = ++seq;
+            String framed = "^" + n + "|" + msg;
+            ring[(int) (n % ring.length)] = framed;
+            if (attached != null) attached.offer(framed);
+        }
+
+        /**
+         * Attaches {@code session} and queues every event after {@code lastSeq}.
+         * @return false if some of those events have already left the ring
+         */
+        synchronized boolean resume(ClientSession session, long lastSeq) {
+            if (attached != null && attached != session) attached.close();
+            attached = session;
+            if (lastSeq > seq) return false;
+            if (seq - lastSeq > ring.length) return false;
+            for (long n = lastSeq + 1; n <= seq; n++) session.offer(ring[(int) (n % ring.length)]);
+            return true;
+        }
+
+        synchronized long seq() {
+            return seq;
+        }
+
+        synchronized void detach(ClientSession session) {
+            if (attached != session) return;
+            attached = null;
+            detachedAt = System.currentTimeMillis();
+        }
+
+        synchronized boolean isExpired(long now, long ttl) {
+            return attached == null && now - detachedAt > ttl;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.expensedash.server;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Records every line clients send, for replay against another build.
+ *
+ * Enabled with -Dexpensedash.capture=&lt;file&gt;. Each connection gets a session id;
+ * the file holds one record per connection opened, line read and connection closed,
+ * stamped with microseconds since the capture started. Lines are recorded exactly as
+ * read, including request headers and the rows of BATCH and IMPORT uploads.
+ *
+ * File format (big-endian): int magic "EDT1", long start time in epoch millis, then
+ * records of {byte type, long micros, int session} followed for LINE records by
+ * {int length, UTF-8 bytes}. A torn last record is ignored by {@link #read}.
+ *
+ * Lines are timestamped on the session thread and written on one background thread,
+ * flushed once per burst, so capturing never blocks a client on disk I/O.
+ */
+public final class TrafficCapture {
+    private static final int MAGIC = 0x45445431; // "EDT1"
+    public static final byte OPEN = 1, LINE = 2, CLOSE = 3;
+
+    /** One captured record; {@code line} is null unless {@code type == LINE}. */
+    public record Entry(byte type, long micros, int session, String line) {}
+
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger nextSession = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final DataOutputStream out; // io thread only after construction
+    private final ExecutorService io = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "traffic-capture");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private TrafficCapture(Path file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeLong(System.currentTimeMillis());
+        out.flush();
+    }
+
+    /** Capture to the file named by expensedash.capture, or null when it is not set. */
+    public static TrafficCapture fromConfig() throws IOException {
+        String file = System.getProperty("expensedash.capture");
+        if (file == null || file.isBlank()) return null;
+        System.out.println("[Capture] Recording client traffic to " + file);
+        return new TrafficCapture(Path.of(file));
+    }
+
+    /** Wraps a new connection's input; every line read from the result is recorded. */
+    BufferedReader open(Reader in) {
+        int session = nextSession.incrementAndGet();
+        write(OPEN, session, null);
+        return new Recording(in, session);
+    }
+
+    private void write(byte type, int session, String line) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        byte[] bytes = line == null ? null : line.getBytes(StandardCharsets.UTF_8);
+        queued.incrementAndGet();
+        io.execute(() -> {
+            boolean last = queued.decrementAndGet() == 0;
+            try {
+                out.writeByte(type);
+                out.writeLong(micros);
+                out.writeInt(session);
+                if (bytes != null) {
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                if (last) out.flush();
+            } catch (IOException e) {
+                System.out.println("[Capture] Write failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /** A session's reader; {@link #end} records the close once. */
+    final class Recording extends BufferedReader {
+        private final int session;
+        private boolean ended;
+
+        Recording(Reader in, int session) {
+            super(in);
+            this.session = session;
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            String line = super.readLine();
+            if (line != null) write(LINE, session, line);
+            return line;
+        }
+
+        synchronized void end() {
+            if (ended) return;
+            ended = true;
+            write(CLOSE, session, null);
+        }
+    }
+
+    /**
+     * Reads a capture file in recorded order.
+     * @return the capture's start time in epoch millis
+     */
+    public static long read(Path file, Consumer<Entry> sink) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) throw new IOException("not a traffic capture: " + file);
+            long started = in.readLong();
+            while (true) {
+                int type = in.read();
+                if (type < 0) break;
+                try {
+                    long micros = in.readLong();
+                    int session = in.readInt();
+                    String line = null;
+                    if (type == LINE) {
+                        byte[] bytes = new byte[in.readInt()];
+                        in.readFully(bytes);
+                        line = new String(bytes, StandardCharsets.UTF_8);
+                    }
+                    sink.accept(new Entry((byte) type, micros, session, line));
+                } catch (EOFException torn) {
+                    break;
+                }
+            }
+            return started;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.expensedash.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("expensedash.Broadcast")
+@Label("Broadcast")
+@Category({"ExpenseDash", "Server"})
+public class BroadcastEvent extends Event {
+    @Label("Opcode")
+    public String opcode;
+
+    @Label("Recipients")
+    public int recipients;
+}
@@ -0,0 +1,23 @@
+package com.expensedash.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("expensedash.Command")
+@Label("Command")
+@Category({"ExpenseDash", "Server"})
+@Description("One protocol command handled by a session thread")
+public class CommandEvent extends Event {
+    @Label("Opcode")
+    public String opcode;
+
+    @Label("User")
+    public String user;
+
+    @Label("Tagged")
+    @Description("Sent with a request id")
+    public boolean tagged;
+}
@@ -0,0 +1,28 @@
+package com.expensedash.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("expensedash.Snapshot")
+@Label("Snapshot")
+@Category({"ExpenseDash", "Server"})
+public class SnapshotEvent extends Event {
+    @Label("User")
+    public String user;
+
+    @Label("Groups")
+    public int groups;
+
+    @Label("Unchanged Groups")
+    public int unchangedGroups;
+
+    @Label("Lines")
+    public long lines;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,20 @@
+package com.expensedash.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("expensedash.Sql")
+@Label("SQL Statement")
+@Category({"ExpenseDash", "Database"})
+@Description("Execution of one statement, including reading its rows")
+public class SqlEvent extends Event {
+    @Label("SQL")
+    public String sql;
+
+    @Label("Rows")
+    @Description("Rows read for a query, rows changed for an update")
+    public long rows;
+}
@@ -0,0 +1,121 @@
+package com.expensedash.server.jfr;
+
+import com.expensedash.server.metrics.SlowQueryLog;
+import jdk.jfr.EventType;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * JDBC statement wrappers that time every execution, for a {@link SqlEvent} and for
+ * the {@link SlowQueryLog}.
+ *
+ * A query's execution spans from execute to the last row read (or to close), so it
+ * includes SQLite's lazy stepping through the result. Statements are only wrapped
+ * while the event is enabled in a running recording or the slow query log is on;
+ * otherwise the driver's own objects are used and tracing costs nothing.
+ */
+public final class SqlTracing {
+    private static final EventType TYPE = EventType.getEventType(SqlEvent.class);
+
+    private SqlTracing() {}
+
+    public static boolean enabled() {
+        return TYPE.isEnabled() || SlowQueryLog.enabled();
+    }
+
+    /**
+     * @param stmt statement from prepareStatement or createStatement
+     * @param sql  the prepared SQL, or null for a plain Statement (taken from execute's argument)
+     * @param conn the unwrapped connection, used to explain slow statements
+     */
+    public static Statement wrap(Statement stmt, String sql, Connection conn) {
+        Class<?> iface = stmt instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+        Execution ex = new Execution(conn);
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] {iface},
+                (proxy, m, args) -> {
+                    String name = m.getName();
+                    if (!name.startsWith("execute")) {
+                        if (name.equals("close")) ex.finish();
+                        else if (name.equals("clearParameters")) ex.params.clear();
+                        else if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer i) {
+                            ex.params.put(i, args[1]); // setInt(1, gid), setString(2, name), ...
+                        }
+                        return invoke(stmt, m, args);
+                    }
+                    ex.finish();
+                    ex.start(sql != null ? sql : args != null && args.length > 0 ? String.valueOf(args[0]) : "?");
+                    Object r = invoke(stmt, m, args);
+                    if (r instanceof ResultSet rs) return ex.track(rs);
+                    if (r instanceof Integer n) ex.rows = n;
+                    else if (r instanceof Long n) ex.rows = n;
+                    else if (r instanceof int[] counts) for (int n : counts) ex.rows += n;
+                    ex.finish();
+                    return r;
+                });
+    }
+
+    private static Object invoke(Object target, Method m, Object[] args) throws Throwable {
+        try {
+            return m.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** The statement's current execution; statements are used by one thread at a time. */
+    private static final class Execution {
+        final Connection conn;
+        final Map<Integer, Object> params = new TreeMap<>();
+        SqlEvent event;
+        String sql;
+        long start, rows;
+
+        Execution(Connection conn) {
+            this.conn = conn;
+        }
+
+        void start(String sql) {
+            this.sql = sql;
+            event = new SqlEvent();
+            event.sql = sql;
+            rows = 0;
+            start = System.nanoTime();
+            event.begin();
+        }
+
+        void finish() {
+            if (event == null) return;
+            event.end();
+            if (event.shouldCommit()) {
+                event.rows = rows;
+                event.commit();
+            }
+            event = null;
+            long nanos = System.nanoTime() - start;
+            if (SlowQueryLog.isSlow(nanos)) SlowQueryLog.record(conn, sql, params, rows, nanos);
+        }
+
+        ResultSet track(ResultSet rs) {
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] {ResultSet.class},
+                    (proxy, m, args) -> {
+                        Object r = invoke(rs, m, args);
+                        String name = m.getName();
+                        if (name.equals("next")) {
+                            if ((Boolean) r) rows++;
+                            else finish();
+                        } else if (name.equals("close")) {
+                            finish();
+                        }
+                        return r;
+                    });
+        }
+    }
+}
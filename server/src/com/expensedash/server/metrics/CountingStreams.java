@@ -0,0 +1,47 @@
+package com.expensedash.server.metrics;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Socket stream wrappers that add every byte transferred to a shared counter. */
+public final class CountingStreams {
+    private CountingStreams() {}
+
+    public static InputStream in(InputStream in, LongAdder bytes) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) bytes.increment();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                int n = super.read(buf, off, len);
+                if (n > 0) bytes.add(n);
+                return n;
+            }
+        };
+    }
+
+    public static OutputStream out(OutputStream out, LongAdder bytes) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytes.increment();
+            }
+
+            @Override
+            public void write(byte[] buf, int off, int len) throws IOException {
+                out.write(buf, off, len); // FilterOutputStream would write byte by byte
+                bytes.add(len);
+            }
+        };
+    }
+}
@@ -0,0 +1,98 @@
+package com.expensedash.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram in the style of HdrHistogram.
+ *
+ * Every power of two is split into 32 linear sub-buckets, so any recorded value is
+ * reported to within about 3% across the whole long range, with a fixed footprint of
+ * 1920 counters. {@link #record} is one atomic increment plus two adders and never
+ * allocates, so it is safe on every request path.
+ */
+public final class Histogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+    private final double divisor;
+
+    /** @param divisor applied to values when rendering, e.g. 1e9 for nanoseconds → seconds */
+    public Histogram(double divisor) {
+        this.divisor = divisor;
+    }
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) { }
+    }
+
+    /** Records the time since {@code startNanos} (from {@link System#nanoTime()}). */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    /** Highest value of the bucket holding quantile {@code q} (0..1), capped at the max. */
+    public long quantile(double q) {
+        long[] c = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) total += (c[i] = counts.get(i));
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += c[i];
+            if (seen >= rank) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    /** Appends Prometheus summary lines: quantiles, _sum, _count and _max. Nothing if empty. */
+    void render(String name, String labels, StringBuilder out) {
+        if (count() == 0) return;
+        String sep = labels.isEmpty() ? "" : labels + ",";
+        for (double q : new double[] {0.5, 0.9, 0.99, 0.999}) {
+            out.append(name).append('{').append(sep).append("quantile=\"").append(q).append("\"} ")
+                    .append(scaled(quantile(q))).append('\n');
+        }
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(braces).append(' ').append(scaled(sum.sum())).append('\n');
+        out.append(name).append("_count").append(braces).append(' ').append(count()).append('\n');
+        out.append(name).append("_max").append(braces).append(' ').append(scaled(max())).append('\n');
+    }
+
+    private String scaled(long v) {
+        return divisor == 1.0 ? Long.toString(v) : Double.toString(v / divisor);
+    }
+
+    static int index(long v) {
+        if (v < SUB) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return (shift + 1) * SUB + (int) ((v >>> shift) & (SUB - 1));
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB) return index;
+        int shift = index / SUB - 1;
+        long lower = (long) (SUB + index % SUB) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
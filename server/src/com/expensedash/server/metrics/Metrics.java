@@ -0,0 +1,105 @@
+package com.expensedash.server.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide metric registry.
+ *
+ * Metrics are looked up once (at registration or first use) and then updated
+ * lock-free: counters are {@link LongAdder}s, latencies go into {@link Histogram}s
+ * recorded in nanoseconds and rendered in seconds. {@link #render()} produces the
+ * Prometheus text format, which is served by {@link #startHttp} and by the STATS
+ * command.
+ */
+public final class Metrics {
+    private static final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    private Metrics() {}
+
+    /** Latency histogram (nanoseconds in, seconds out), e.g. timer("expensedash_command_seconds", "op", "LOGIN"). */
+    public static Histogram timer(String name, String label, String value) {
+        return histograms.computeIfAbsent(key(name, label, value), k -> new Histogram(1e9));
+    }
+
+    public static Histogram timer(String name) {
+        return histograms.computeIfAbsent(name, k -> new Histogram(1e9));
+    }
+
+    /** Histogram of plain values such as sizes or counts. */
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new Histogram(1.0));
+    }
+
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    public static LongAdder counter(String name, String label, String value) {
+        return counters.computeIfAbsent(key(name, label, value), k -> new LongAdder());
+    }
+
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /** Current values of every metric in Prometheus text format. */
+    public static String render() {
+        StringBuilder out = new StringBuilder(4096);
+        gauges.forEach((name, g) -> out.append(name).append(' ').append(g.getAsLong()).append('\n'));
+        counters.forEach((key, c) -> out.append(key).append(' ').append(c.sum()).append('\n'));
+        histograms.forEach((key, h) -> {
+            int brace = key.indexOf('{');
+            if (brace < 0) h.render(key, "", out);
+            else h.render(key.substring(0, brace), key.substring(brace + 1, key.length() - 1), out);
+        });
+        return out.toString();
+    }
+
+    /**
+     * Serves {@link #render()} at http://127.0.0.1:&lt;port&gt;/metrics on one daemon thread.
+     * Bound to loopback only; put a proxy in front to scrape from elsewhere.
+     * A busy port only disables the endpoint, it never stops the server.
+     */
+    public static void startHttp(int port) {
+        if (port <= 0) return;
+        HttpServer http;
+        try {
+            http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException e) {
+            System.out.println("[Metrics] HTTP endpoint disabled: " + e.getMessage());
+            return;
+        }
+        http.createContext("/metrics", ex -> {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream os = ex.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        http.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-http");
+            t.setDaemon(true);
+            return t;
+        }));
+        http.start();
+        System.out.println("[Metrics] Serving http://127.0.0.1:" + port + "/metrics");
+    }
+
+    private static String key(String name, String label, String value) {
+        return name + "{" + label + "=\"" + value + "\"}";
+    }
+}
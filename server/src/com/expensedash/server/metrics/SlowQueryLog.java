@@ -0,0 +1,105 @@
+package com.expensedash.server.metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Statements slower than a threshold, with their parameters, row count and query plan.
+ *
+ * Entries go to a size-rotated file (java.util.logging FileHandler), never to stdout.
+ * Timing happens in {@link com.expensedash.server.jfr.SqlTracing}'s statement wrapper,
+ * which is installed only while this log (or a JFR recording) is enabled, so the log
+ * is off by default.
+ *
+ * Tunables (system properties):
+ *   expensedash.slowQuery.millis  (default 0 = off)
+ *   expensedash.slowQuery.file    (default slow-queries.log; written as .0, rotated through .4 at 10 MB each)
+ *   expensedash.log.dir           (default logs; where a relative file name goes, created if missing)
+ */
+public final class SlowQueryLog {
+    private static final long THRESHOLD_NANOS = Long.getLong("expensedash.slowQuery.millis", 0) * 1_000_000;
+    private static final Logger LOG = THRESHOLD_NANOS > 0 ? open() : null;
+
+    private SlowQueryLog() {}
+
+    public static boolean enabled() {
+        return LOG != null;
+    }
+
+    public static boolean isSlow(long nanos) {
+        return LOG != null && nanos >= THRESHOLD_NANOS;
+    }
+
+    /**
+     * Logs one slow execution. {@code c} must be the unwrapped connection it ran on;
+     * the plan is taken from it with the same parameters.
+     */
+    public static void record(Connection c, String sql, Map<Integer, Object> params, long rows, long nanos) {
+        if (sql.startsWith("EXPLAIN")) return; // our own plan lookups
+        StringBuilder sb = new StringBuilder(256)
+                .append(Instant.now()).append(' ').append(nanos / 1_000_000).append(" ms, ").append(rows).append(" rows\n")
+                .append("  sql:    ").append(sql).append('\n');
+        if (!params.isEmpty()) sb.append("  params: ").append(params.values()).append('\n');
+        try {
+            for (String step : explain(c, sql, params)) sb.append("  plan:   ").append(step).append('\n');
+        } catch (SQLException e) {
+            sb.append("  plan:   unavailable (").append(e.getMessage()).append(")\n");
+        }
+        LOG.info(sb.toString());
+    }
+
+    /** EXPLAIN QUERY PLAN of {@code sql}, one line per step, indented by depth. */
+    public static List<String> explain(Connection c, String sql, Map<Integer, Object> params) throws SQLException {
+        List<String> steps = new ArrayList<>();
+        try (PreparedStatement ps = c.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+            for (var p : params.entrySet()) ps.setObject(p.getKey(), p.getValue());
+            Map<Integer, Integer> depth = new HashMap<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int d = depth.getOrDefault(rs.getInt(2), -1) + 1; // columns: id, parent, notused, detail
+                    depth.put(rs.getInt(1), d);
+                    steps.add("  ".repeat(d) + rs.getString(4));
+                }
+            }
+        }
+        return steps;
+    }
+
+    private static Logger open() {
+        Logger log = Logger.getLogger("expensedash.slowQueries");
+        log.setUseParentHandlers(false);
+        Path file = Path.of(System.getProperty("expensedash.log.dir", "logs"))
+                .resolve(System.getProperty("expensedash.slowQuery.file", "slow-queries.log"));
+        try {
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+            FileHandler h = new FileHandler(file.toString().replace("%", "%%") + ".%g", 10 << 20, 5, true);
+            h.setFormatter(new Formatter() {
+                @Override
+                public String format(LogRecord r) {
+                    return r.getMessage();
+                }
+            });
+            log.addHandler(h);
+        } catch (IOException e) {
+            System.out.println("[Database] Slow query log disabled: " + e.getMessage());
+            return null;
+        }
+        log.setLevel(Level.INFO);
+        return log;
+    }
+}
@@ -0,0 +1,43 @@
+package com.expensedash.server.metrics;
+
+import com.expensedash.server.jfr.SqlTracing;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Wraps a JDBC connection so that closing it records how long it was open.
+ * Database opens one connection per method call, so this is the method's latency
+ * including statement preparation and result reading.
+ *
+ * While a JFR recording has expensedash.Sql enabled or the {@link SlowQueryLog} is on,
+ * statements are also wrapped by {@link SqlTracing} so that every execution is timed
+ * with its SQL text.
+ */
+public final class TimedConnection {
+    private TimedConnection() {}
+
+    public static Connection wrap(Connection c, Histogram latency) {
+        long start = System.nanoTime();
+        AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    try {
+                        Object r = method.invoke(c, args);
+                        if (r instanceof Statement st && SqlTracing.enabled()) {
+                            // prepareStatement(sql, ...) carries the SQL; createStatement gets it at execute
+                            return SqlTracing.wrap(st, method.getName().equals("prepareStatement") ? (String) args[0] : null, c);
+                        }
+                        return r;
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    } finally {
+                        if (method.getName().equals("close") && closed.compareAndSet(false, true))
+                            latency.recordSince(start);
+                    }
+                });
+    }
+}
@@ -6,12 +6,18 @@ public class Expense {
     public final String payer;
     public final double amount;
     public final String desc;
+    public final String createdAt; // null = let the database stamp it
 
     public Expense(int id, int groupId, String payer, double amount, String desc) {
+        this(id, groupId, payer, amount, desc, null);
+    }
+
+    public Expense(int id, int groupId, String payer, double amount, String desc, String createdAt) {
         this.id = id;
         this.groupId = groupId;
         this.payer = payer;
         this.amount = amount;
         this.desc = desc;
+        this.createdAt = createdAt;
     }
 }
@@ -0,0 +1,10 @@
+package com.expensedash.server.protocol;
+
+/**
+ * Handles one command. {@code args} is positioned on the first field after the opcode.
+ * @param <S> session type
+ */
+@FunctionalInterface
+public interface CommandHandler<S> {
+    void handle(S session, FieldCursor args) throws Exception;
+}
@@ -0,0 +1,111 @@
+package com.expensedash.server.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Opcode → handler table.
+ *
+ * Lookup hashes the opcode straight out of the line (no substring, no split) into a
+ * small open-addressing table, so dispatch costs one hash and one region compare
+ * no matter how many commands are registered.
+ *
+ * An optional {@link Decorator} wraps each handler once at registration, e.g. to time
+ * it, so cross-cutting concerns cost nothing extra at lookup.
+ *
+ * @param <S> session type
+ */
+public final class CommandRegistry<S> {
+    /** Wraps the handler registered for {@code opcode}. */
+    public interface Decorator<S> {
+        CommandHandler<S> wrap(String opcode, CommandHandler<S> handler);
+    }
+
+    private final Decorator<S> decorator;
+    private String[] keys = new String[64];
+    private CommandHandler<S>[] handlers = newArray(64);
+    private int size;
+
+    public CommandRegistry() {
+        this((op, h) -> h);
+    }
+
+    public CommandRegistry(Decorator<S> decorator) {
+        this.decorator = decorator;
+    }
+
+    public CommandRegistry<S> on(String opcode, CommandHandler<S> handler) {
+        if (size * 2 >= keys.length) grow();
+        insert(opcode, decorator.wrap(opcode, handler));
+        size++;
+        return this;
+    }
+
+    public CommandRegistry<S> onGroup(String opcode, GroupCommandHandler<S> handler) {
+        return on(opcode, (s, args) -> handler.handle(s, args.nextInt(), args));
+    }
+
+    /**
+     * Finds the handler for the opcode {@code args} was reset on.
+     * @return null for unknown opcodes
+     */
+    public CommandHandler<S> lookup(FieldCursor args) {
+        String line = args.line();
+        int from = args.opStart(), to = args.opEnd(), len = to - from;
+        int mask = keys.length - 1;
+        for (int i = hash(line, from, to) & mask; ; i = (i + 1) & mask) {
+            String k = keys[i];
+            if (k == null) return null;
+            if (k.length() == len && line.regionMatches(from, k, 0, len)) return handlers[i];
+        }
+    }
+
+    /**
+     * Resets {@code args} on {@code line} and runs the matching handler.
+     * @return false if the opcode is not registered
+     */
+    public boolean dispatch(S session, String line, FieldCursor args) throws Exception {
+        args.reset(line);
+        CommandHandler<S> h = lookup(args);
+        if (h == null) return false;
+        h.handle(session, args);
+        return true;
+    }
+
+    public List<String> opcodes() {
+        List<String> list = new ArrayList<>(size);
+        for (String k : keys) if (k != null) list.add(k);
+        return list;
+    }
+
+    private void insert(String opcode, CommandHandler<S> handler) {
+        int mask = keys.length - 1;
+        int i = hash(opcode, 0, opcode.length()) & mask;
+        while (keys[i] != null && !keys[i].equals(opcode)) i = (i + 1) & mask;
+        if (keys[i] != null) size--; // replacing an existing opcode
+        keys[i] = opcode;
+        handlers[i] = handler;
+    }
+
+    private void grow() {
+        String[] oldKeys = keys;
+        CommandHandler<S>[] oldHandlers = handlers;
+        keys = new String[oldKeys.length * 2];
+        handlers = newArray(keys.length);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) insert(oldKeys[i], oldHandlers[i]);
+        }
+    }
+
+    private static int hash(String s, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) h = 31 * h + s.charAt(i);
+        return h ^ (h >>> 16);
+    }
+
+    // Java cannot create a CommandHandler<S>[]; every element stored is a CommandHandler<S>
+    @SuppressWarnings("unchecked")
+    private static <S> CommandHandler<S>[] newArray(int n) {
+        return (CommandHandler<S>[]) new CommandHandler<?>[n];
+    }
+}
@@ -0,0 +1,133 @@
+package com.expensedash.server.protocol;
+
+/**
+ * Reads '|'-separated fields out of one protocol line without regex and without
+ * building a String[]. Numbers are parsed in place; only fields that are actually
+ * needed as text are materialised as Strings.
+ *
+ * One cursor is reused for every line a session reads.
+ */
+public final class FieldCursor {
+    public static final char SEP = '|';
+
+    private String line = "";
+    private int pos;
+    private int opStart;
+    private int opEnd;
+
+    /** Points the cursor at a new line and positions it after the opcode. */
+    public FieldCursor reset(String line) {
+        return reset(line, 0);
+    }
+
+    /** Same as {@link #reset(String)} but the opcode starts at {@code start}. */
+    public FieldCursor reset(String line, int start) {
+        this.line = line;
+        this.opStart = start;
+        int sep = line.indexOf(SEP, start);
+        this.opEnd = sep < 0 ? line.length() : sep;
+        this.pos = sep < 0 ? line.length() + 1 : sep + 1;
+        return this;
+    }
+
+    public String line() { return line; }
+
+    public int opStart() { return opStart; }
+
+    public int opEnd() { return opEnd; }
+
+    public String opcode() { return line.substring(opStart, opEnd); }
+
+    /** True if at least one more field (possibly empty) follows. */
+    public boolean hasNext() {
+        return pos <= line.length();
+    }
+
+    /** Next field as a String. */
+    public String next() {
+        int end = fieldEnd();
+        String s = line.substring(pos, end);
+        pos = end + 1;
+        return s;
+    }
+
+    /** Skips the next field without materialising it. */
+    public void skip() {
+        pos = fieldEnd() + 1;
+    }
+
+    /** Next field as a base-10 int, parsed without allocating. */
+    public int nextInt() {
+        int end = fieldEnd();
+        int i = pos;
+        if (i >= end) throw new NumberFormatException("empty field");
+        boolean neg = line.charAt(i) == '-';
+        if (neg && ++i >= end) throw new NumberFormatException("bad int");
+        long v = 0;
+        for (; i < end; i++) {
+            int d = line.charAt(i) - '0';
+            if (d < 0 || d > 9) throw new NumberFormatException("bad int: " + line.substring(pos, end));
+            v = v * 10 + d;
+            if (v > Integer.MAX_VALUE + 1L) throw new NumberFormatException("int overflow");
+        }
+        if (neg) v = -v;
+        if (v > Integer.MAX_VALUE) throw new NumberFormatException("int overflow");
+        pos = end + 1;
+        return (int) v;
+    }
+
+    /** Next field as a long, parsed without allocating. */
+    public long nextLong() {
+        int end = fieldEnd();
+        int i = pos;
+        if (i >= end) throw new NumberFormatException("empty field");
+        boolean neg = line.charAt(i) == '-';
+        if (neg) i++;
+        long v = 0;
+        for (; i < end; i++) {
+            int d = line.charAt(i) - '0';
+            if (d < 0 || d > 9) throw new NumberFormatException("bad long: " + line.substring(pos, end));
+            v = Math.multiplyExact(v, 10) + d;
+        }
+        pos = end + 1;
+        return neg ? -v : v;
+    }
+
+    /** Next field as a double (delegates to Double.parseDouble for exact rounding). */
+    public double nextDouble() {
+        return Double.parseDouble(next());
+    }
+
+    /** Everything after the current position, separators included; "" if nothing is left. */
+    public String rest() {
+        if (pos > line.length()) return "";
+        String s = line.substring(pos);
+        pos = line.length() + 1;
+        return s;
+    }
+
+    /** {@link #rest()} or {@code def} if no field is left. */
+    public String restOr(String def) {
+        return hasNext() ? rest() : def;
+    }
+
+    /**
+     * Returns {@code text} if it can be echoed as a single field of a line, e.g. in an
+     * EXPENSE broadcast; throws IllegalArgumentException naming {@code what} otherwise.
+     */
+    public static String checkField(String what, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch == SEP || ch == '\n' || ch == '\r') {
+                throw new IllegalArgumentException(what + " may not contain '|' or a line break");
+            }
+        }
+        return text;
+    }
+
+    private int fieldEnd() {
+        if (pos > line.length()) throw new IllegalArgumentException("missing field in: " + line);
+        int end = line.indexOf(SEP, pos);
+        return end < 0 ? line.length() : end;
+    }
+}
@@ -0,0 +1,11 @@
+package com.expensedash.server.protocol;
+
+/**
+ * Handles a command whose first field is a group id, e.g. {@code ADD_EXPENSE|gid|...}.
+ * The registry parses the id; {@code args} is positioned on the field after it.
+ * @param <S> session type
+ */
+@FunctionalInterface
+public interface GroupCommandHandler<S> {
+    void handle(S session, int groupId, FieldCursor args) throws Exception;
+}
@@ -0,0 +1,32 @@
+package com.expensedash.server.protocol;
+
+/**
+ * The optional "@&lt;id&gt;|" or "@&lt;id&gt;:&lt;key&gt;|" header in front of a command.
+ *
+ * Replies to a tagged command are prefixed with {@link #tag}; {@link #key} is an
+ * idempotency key for mutations that may be retried. One instance is reused per
+ * session, like {@link FieldCursor}.
+ */
+public final class RequestHeader {
+    /** "@id|" of the last parsed line, or null if it had no header. */
+    public String tag;
+    /** Idempotency key of the last parsed line, or null. */
+    public String key;
+
+    /** @return index of the opcode in {@code line}, or -1 if the header is malformed */
+    public int parse(String line) {
+        tag = null;
+        key = null;
+        if (!line.startsWith("@")) return 0;
+        int opStart = line.indexOf(FieldCursor.SEP) + 1;
+        if (opStart == 0) return -1;
+        int colon = line.indexOf(':');
+        if (colon > 0 && colon < opStart) {
+            tag = line.substring(0, colon) + "|";
+            key = line.substring(colon + 1, opStart - 1);
+        } else {
+            tag = line.substring(0, opStart);
+        }
+        return opStart;
+    }
+}
@@ -0,0 +1,130 @@
+package com.expensedash.server.reports;
+
+import com.expensedash.server.Database;
+import com.expensedash.server.model.Group;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Every open and archived expense as parallel primitive arrays, so reports can scan
+ * millions of rows without a JDBC call or an object per row.
+ *
+ * Index i of each column is one expense: group id, payer (dictionary code), amount in
+ * cents, creation time in epoch seconds (UTC, as SQLite writes it) and month
+ * (year * 12 + month - 1). Group names and categories are kept per group id.
+ *
+ * {@link #refresh} appends whatever was inserted since the last call; see
+ * {@link Database#expensesAfter}. Readers scan a {@link View}, an immutable prefix of
+ * the arrays: a refresh only writes past it, or into new arrays when it grows them.
+ */
+public final class ExpenseColumns {
+    /** A consistent prefix of the columns; codes and group ids index the lookup arrays. */
+    public record View(int size, int[] group, int[] payer, long[] cents, long[] created,
+                       int[] month, int minMonth, int maxMonth, String[] payers, int payerCount,
+                       String[] groupNames, int[] groupCategory, String[] categories, int categoryCount) {}
+
+    private final Database db;
+    private volatile View view = new View(0, new int[0], new int[0], new long[0], new long[0],
+            new int[0], 0, -1, new String[0], 0, new String[0], new int[0], new String[0], 0);
+
+    // Writer state, guarded by this
+    private int size, maxId, maxGroupId;
+    private int minMonth = Integer.MAX_VALUE, maxMonth = Integer.MIN_VALUE;
+    private int[] group = new int[1024], payer = new int[1024], month = new int[1024];
+    private long[] cents = new long[1024], created = new long[1024];
+    private String[] payers = new String[64], groupNames = new String[64], categories = new String[16];
+    private int[] groupCategory = new int[64];
+    private final Map<String, Integer> payerCodes = new HashMap<>(), categoryCodes = new HashMap<>();
+
+    public ExpenseColumns(Database db) {
+        this.db = db;
+    }
+
+    public View view() {
+        return view;
+    }
+
+    /**
+     * Loads expenses and groups added since the last call and publishes a new view.
+     * Groups are read after expenses, so every loaded row's group is known.
+     * @return number of expenses appended
+     */
+    public synchronized int refresh() throws SQLException {
+        int before = size;
+        maxId = db.expensesAfter(maxId, this::append);
+        for (Group g : db.getGroupsAfter(maxGroupId)) {
+            if (g.id >= groupNames.length) {
+                int cap = Math.max(g.id + 1, groupNames.length * 3 / 2);
+                groupNames = Arrays.copyOf(groupNames, cap);
+                groupCategory = Arrays.copyOf(groupCategory, cap);
+            }
+            groupNames[g.id] = g.name;
+            groupCategory[g.id] = code(categoryCodes, g.category == null ? "" : g.category, true);
+            maxGroupId = g.id;
+        }
+        view = new View(size, group, payer, cents, created, month, minMonth, maxMonth,
+                payers, payerCodes.size(), groupNames, groupCategory, categories, categoryCodes.size());
+        return size - before;
+    }
+
+    private void append(int id, int groupId, String payerName, double amount, String createdAt) {
+        if (size == group.length) {
+            int cap = size * 3 / 2;
+            group = Arrays.copyOf(group, cap);
+            payer = Arrays.copyOf(payer, cap);
+            cents = Arrays.copyOf(cents, cap);
+            created = Arrays.copyOf(created, cap);
+            month = Arrays.copyOf(month, cap);
+        }
+        long seconds = epochSeconds(createdAt);
+        group[size] = groupId;
+        payer[size] = code(payerCodes, payerName, false);
+        cents[size] = Math.round(amount * 100);
+        created[size] = seconds;
+        month[size] = seconds == 0 ? 1970 * 12 : Integer.parseInt(createdAt, 0, 4, 10) * 12 + Integer.parseInt(createdAt, 5, 7, 10) - 1;
+        minMonth = Math.min(minMonth, month[size]);
+        maxMonth = Math.max(maxMonth, month[size]);
+        size++;
+    }
+
+    /** Dictionary code for {@code value}, assigning the next one on first sight. */
+    private int code(Map<String, Integer> codes, String value, boolean category) {
+        Integer c = codes.get(value);
+        if (c != null) return c;
+        int next = codes.size();
+        if (category) {
+            if (next == categories.length) categories = Arrays.copyOf(categories, next * 2);
+            categories[next] = value;
+        } else {
+            if (next == payers.length) payers = Arrays.copyOf(payers, next * 2);
+            payers[next] = value;
+        }
+        codes.put(value, next);
+        return next;
+    }
+
+    /**
+     * "YYYY-MM-DD[ HH:MM:SS]" (SQLite's CURRENT_TIMESTAMP, UTC) as epoch seconds;
+     * a missing or unreadable value counts as the epoch.
+     */
+    static long epochSeconds(String ts) {
+        if (ts == null || ts.length() < 10) return 0;
+        try {
+            // Field by field: LocalDate.parse costs more than the rest of a load
+            long seconds = LocalDate.of(Integer.parseInt(ts, 0, 4, 10), Integer.parseInt(ts, 5, 7, 10),
+                    Integer.parseInt(ts, 8, 10, 10)).toEpochDay() * 86_400;
+            if (ts.length() >= 19) {
+                seconds += Integer.parseInt(ts, 11, 13, 10) * 3600L
+                        + Integer.parseInt(ts, 14, 16, 10) * 60L
+                        + Integer.parseInt(ts, 17, 19, 10);
+            }
+            return seconds;
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+}
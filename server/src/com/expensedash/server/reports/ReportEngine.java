@@ -0,0 +1,172 @@
+package com.expensedash.server.reports;
+
+import com.expensedash.server.Database;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Spending totals over {@link ExpenseColumns}, grouped by payer, group category,
+ * month or group.
+ *
+ * A report is one pass over the columns, split into fixed-size chunks that run in
+ * parallel on a dedicated fork/join pool (-Dexpensedash.reports.threads, default the
+ * core count). Each chunk sums into its own dense arrays indexed by key code, and
+ * the chunks are merged at the end, so the scan takes no locks and creates no
+ * objects per row.
+ */
+public final class ReportEngine {
+    public enum By { PAYER, CATEGORY, MONTH, GROUP }
+
+    /** One result row; {@code total} is exact (summed in cents). */
+    public record Line(String key, BigDecimal total, int count) {}
+
+    /** Result of {@link #run}: rows in report order and how many expenses were scanned. */
+    public record Report(List<Line> lines, int scanned) {}
+
+    private static final int CHUNK = 1 << 16;
+
+    private final ExpenseColumns columns;
+    private final ForkJoinPool pool;
+
+    public ReportEngine(Database db, int threads) {
+        this.columns = new ExpenseColumns(db);
+        this.pool = new ForkJoinPool(Math.max(1, threads));
+    }
+
+    public static ReportEngine fromConfig(Database db) {
+        return new ReportEngine(db, Integer.getInteger("expensedash.reports.threads", Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Loads every expense into memory on a daemon thread, so a large database does not
+     * hold up startup; a REPORT arriving meanwhile waits for it. Later refreshes only
+     * read new rows.
+     */
+    public void loadInBackground() {
+        Thread t = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                int rows = columns.refresh();
+                System.out.println("[Reports] Loaded " + rows + " expenses in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            } catch (SQLException e) {
+                System.out.println("[Reports] Initial load failed: " + e.getMessage());
+            }
+        }, "report-loader");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Totals for expenses with {@code from <= created < to} (epoch seconds) in the
+     * groups {@code allowed} marks, or in every group when it is null.
+     * Months come in calendar order, everything else largest total first.
+     * @param limit maximum rows returned, 0 for all
+     */
+    public Report run(By by, long from, long to, boolean[] allowed, int limit) throws Exception {
+        columns.refresh();
+        ExpenseColumns.View v = columns.view();
+        int base = by == By.MONTH ? v.minMonth() : 0;
+        int keys = switch (by) {
+            case PAYER -> v.payerCount();
+            case CATEGORY -> v.categoryCount() + 1; // last slot: group not loaded yet
+            case MONTH -> v.size() == 0 ? 0 : v.maxMonth() - v.minMonth() + 1;
+            case GROUP -> v.groupNames().length;
+        };
+        int chunks = (v.size() + CHUNK - 1) / CHUNK;
+        Sums sums;
+        try {
+            sums = pool.submit(() -> IntStream.range(0, chunks).parallel()
+                    .mapToObj(c -> scan(v, by, base, keys, c * CHUNK, Math.min(v.size(), (c + 1) * CHUNK), from, to, allowed))
+                    .reduce(Sums::add).orElseGet(() -> new Sums(keys))).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception ex) throw ex;
+            throw e;
+        }
+
+        List<Line> lines = new ArrayList<>();
+        for (int k = 0; k < keys; k++) {
+            if (sums.count[k] == 0) continue;
+            lines.add(new Line(key(v, by, base, k), BigDecimal.valueOf(sums.cents[k], 2), sums.count[k]));
+        }
+        if (by != By.MONTH) lines.sort(Comparator.comparing(Line::total).reversed());
+        if (limit > 0 && lines.size() > limit) lines = lines.subList(0, limit);
+        return new Report(lines, v.size());
+    }
+
+    private static Sums scan(ExpenseColumns.View v, By by, int base, int keys, int start, int end,
+                             long from, long to, boolean[] allowed) {
+        Sums s = new Sums(keys);
+        int[] group = v.group();
+        long[] created = v.created();
+        for (int i = start; i < end; i++) {
+            int g = group[i];
+            if (allowed != null && (g >= allowed.length || !allowed[g])) continue;
+            if (created[i] < from || created[i] >= to) continue;
+            int k = switch (by) {
+                case PAYER -> v.payer()[i];
+                case CATEGORY -> g < v.groupNames().length && v.groupNames()[g] != null ? v.groupCategory()[g] : keys - 1;
+                case MONTH -> v.month()[i] - base;
+                case GROUP -> g < keys ? g : -1;
+            };
+            if (k < 0) continue;
+            s.cents[k] += v.cents()[i];
+            s.count[k]++;
+        }
+        return s;
+    }
+
+    private static String key(ExpenseColumns.View v, By by, int base, int k) {
+        return switch (by) {
+            case PAYER -> v.payers()[k];
+            case CATEGORY -> k < v.categoryCount() ? v.categories()[k] : "";
+            case MONTH -> YearMonth.of((base + k) / 12, (base + k) % 12 + 1).toString();
+            case GROUP -> v.groupNames()[k] != null ? v.groupNames()[k] : "#" + k;
+        };
+    }
+
+    /**
+     * Parses a report bound: "*" (open), "YYYY", "YYYY-MM" or "YYYY-MM-DD", meaning the
+     * first second of that period, in epoch seconds.
+     */
+    public static long bound(String s, boolean upper) {
+        if (s.equals("*")) return upper ? Long.MAX_VALUE : Long.MIN_VALUE;
+        try {
+            LocalDate d = switch (s.length()) {
+                case 4 -> LocalDate.of(Integer.parseInt(s), 1, 1);
+                case 7 -> YearMonth.parse(s).atDay(1);
+                default -> LocalDate.parse(s);
+            };
+            return d.toEpochDay() * 86_400;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Bad date " + s);
+        }
+    }
+
+    /** Per-chunk accumulators, indexed by key code. */
+    private static final class Sums {
+        final long[] cents;
+        final int[] count;
+
+        Sums(int keys) {
+            cents = new long[keys];
+            count = new int[keys];
+        }
+
+        Sums add(Sums o) {
+            for (int k = 0; k < cents.length; k++) {
+                cents[k] += o.cents[k];
+                count[k] += o.count[k];
+            }
+            return this;
+        }
+    }
+}